@@ -0,0 +1,335 @@
+package ukim.finki.mps.delay_function_generator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * turns the code of an executable into 8085 machine code, placed at a given origin,
+ * and writes it as raw binary or in the Intel HEX format, so the generated functions don't need to go through an assembler
+ * 
+ * the code is assembled in two passes, the first one finds the address of every label and the second one writes the opcodes,
+ * a jump to a label is written with the absolute address of the label, the 8085 has no relative jumps,
+ * if the same label is used twice a jump goes to the last one before it
+ * 
+ * the numbers in the code can be decimal, or hexadecimal with a trailing 'H' as in 2050H,
+ * an instruction that is not an 8085 instruction, such as the ones with the F register in the instruction data,
+ * or a number that doesn't fit in its place can not be assembled and an IllegalArgumentException is thrown
+ * @author Andrej Gajduk
+ *
+ */
+public class Assembler {
+
+	/**
+	 * the number of bytes in a data record of the Intel HEX format
+	 */
+	private static final int hex_record_length = 16;
+
+	/**
+	 * the register operand as encoded in the opcodes, M is the memory location pointed to by HL
+	 */
+	private static final HashMap<String,Integer> registers = new HashMap<String,Integer>();
+
+	/**
+	 * the register pair operand as encoded in the opcodes, PSW is used instead of SP only by PUSH and POP
+	 */
+	private static final HashMap<String,Integer> register_pairs = new HashMap<String,Integer>();
+
+	/**
+	 * instructions with no operands
+	 */
+	private static final HashMap<String,Integer> implied = new HashMap<String,Integer>();
+
+	/**
+	 * instructions with a register operand in the lowest three bits of the opcode
+	 */
+	private static final HashMap<String,Integer> register_low = new HashMap<String,Integer>();
+
+	/**
+	 * instructions with a register operand in bits 3 to 5 of the opcode, MVI is followed by a byte
+	 */
+	private static final HashMap<String,Integer> register_high = new HashMap<String,Integer>();
+
+	/**
+	 * instructions with a register pair operand in bits 4 and 5 of the opcode, LXI is followed by two bytes
+	 */
+	private static final HashMap<String,Integer> register_pair = new HashMap<String,Integer>();
+
+	/**
+	 * instructions followed by a byte of immediate data
+	 */
+	private static final HashMap<String,Integer> immediate = new HashMap<String,Integer>();
+
+	/**
+	 * instructions followed by a 16 bit address, the address can be a label
+	 */
+	private static final HashMap<String,Integer> address = new HashMap<String,Integer>();
+
+	static {
+		String register_names[] = { "B" , "C" , "D" , "E" , "H" , "L" , "M" , "A" };
+		for ( int i = 0 ; i < register_names.length ; ++i ) registers.put(register_names[i], i);
+		register_pairs.put("B", 0); register_pairs.put("BC", 0);
+		register_pairs.put("D", 1); register_pairs.put("DE", 1);
+		register_pairs.put("H", 2); register_pairs.put("HL", 2);
+		register_pairs.put("SP", 3); register_pairs.put("S", 3);
+		
+		implied.put("NOP", 0x00); implied.put("RLC", 0x07); implied.put("RRC", 0x0F); implied.put("RAL", 0x17);
+		implied.put("RAR", 0x1F); implied.put("RIM", 0x20); implied.put("DAA", 0x27); implied.put("CMA", 0x2F);
+		implied.put("SIM", 0x30); implied.put("STC", 0x37); implied.put("CMC", 0x3F); implied.put("HLT", 0x76);
+		implied.put("RET", 0xC9); implied.put("XTHL", 0xE3); implied.put("PCHL", 0xE9); implied.put("XCHG", 0xEB);
+		implied.put("DI", 0xF3); implied.put("SPHL", 0xF9); implied.put("EI", 0xFB);
+		
+		register_low.put("ADD", 0x80); register_low.put("ADC", 0x88); register_low.put("SUB", 0x90); register_low.put("SBB", 0x98);
+		register_low.put("ANA", 0xA0); register_low.put("XRA", 0xA8); register_low.put("ORA", 0xB0); register_low.put("CMP", 0xB8);
+		
+		register_high.put("INR", 0x04); register_high.put("DCR", 0x05); register_high.put("MVI", 0x06);
+		
+		register_pair.put("LXI", 0x01); register_pair.put("INX", 0x03); register_pair.put("DAD", 0x09); register_pair.put("DCX", 0x0B);
+		register_pair.put("POP", 0xC1); register_pair.put("PUSH", 0xC5);
+		
+		immediate.put("ADI", 0xC6); immediate.put("ACI", 0xCE); immediate.put("SUI", 0xD6); immediate.put("SBI", 0xDE);
+		immediate.put("ANI", 0xE6); immediate.put("XRI", 0xEE); immediate.put("ORI", 0xF6); immediate.put("CPI", 0xFE);
+		
+		address.put("SHLD", 0x22); address.put("LHLD", 0x2A); address.put("STA", 0x32); address.put("LDA", 0x3A);
+		address.put("JNZ", 0xC2); address.put("JMP", 0xC3); address.put("JZ", 0xCA); address.put("JNC", 0xD2);
+		address.put("JC", 0xDA); address.put("JPO", 0xE2); address.put("JPE", 0xEA); address.put("JP", 0xF2);
+		address.put("JM", 0xFA); address.put("CALL", 0xCD);
+	}
+
+	/**
+	 * the address of the first byte of the code
+	 */
+	private final int origin;
+
+	/**
+	 * @param origin - the address of the first byte of the code, in [0,0xFFFF]
+	 */
+	public Assembler ( int origin ) {
+		if ( origin < 0 || origin > 0xFFFF ) throw new IllegalArgumentException("The origin "+origin+" is not an 8085 address");
+		this.origin = origin;
+	}
+
+	/**
+	 * @param exec - the code, such as a delay function
+	 * @return the machine code, the first byte is placed at the origin
+	 */
+	public byte[] assemble ( Executable exec ) {
+		Listing listing = new Listing();
+		try {
+			listing.write(exec).finish();
+		} catch (IOException e) {
+			//the listing doesn't write anywhere
+			e.printStackTrace();
+		}
+		//first pass, the labels are not known yet so the addresses are left as 0, the size of the instructions doesn't depend on them
+		HashMap<String,Integer> labels = new HashMap<String,Integer>();
+		ByteArrayOutputStream code = new ByteArrayOutputStream();
+		for ( int i = 0 ; i < listing.codes.size() ; ++i ) {
+			String label = listing.labels.get(i);
+			if ( label != null && !labels.containsKey(label) ) labels.put(label, origin+code.size());
+			if ( listing.codes.get(i) != null ) encode(listing.codes.get(i), null, code);
+		}
+		if ( origin+code.size() > 0x10000 ) throw new IllegalArgumentException("The code doesn't fit in the memory after "+origin);
+		//second pass, a label used twice gets the address of the one seen last
+		code.reset();
+		for ( int i = 0 ; i < listing.codes.size() ; ++i ) {
+			String label = listing.labels.get(i);
+			if ( label != null ) labels.put(label, origin+code.size());
+			if ( listing.codes.get(i) != null ) encode(listing.codes.get(i), labels, code);
+		}
+		return code.toByteArray();
+	}
+
+	/**
+	 * writes the machine code as raw binary
+	 * @param exec - the code, such as a delay function
+	 * @param out - where the code is written to
+	 */
+	public void writeBinary ( Executable exec , OutputStream out ) throws IOException {
+		out.write(assemble(exec));
+	}
+
+	/**
+	 * writes the machine code in the Intel HEX format, ending with an end of file record
+	 * @param exec - the code, such as a delay function
+	 * @param out - where the records are written to
+	 */
+	public void writeHex ( Executable exec , Appendable out ) throws IOException {
+		writeHex(assemble(exec), origin, out);
+		out.append(":00000001FF\n");
+	}
+
+	/**
+	 * writes the data records of the Intel HEX format for some machine code, without the end of file record,
+	 * so the code of many functions can be written to the same file
+	 * @param code - the machine code
+	 * @param origin - the address of the first byte of the code
+	 * @param out - where the records are written to
+	 */
+	public static void writeHex ( byte code[] , int origin , Appendable out ) throws IOException {
+		for ( int start = 0 ; start < code.length ; start += hex_record_length ) {
+			int length = Math.min(hex_record_length, code.length-start);
+			int record_address = origin+start;
+			//the checksum makes the sum of all the bytes of the record 0
+			int sum = length+((record_address>>8)&0xFF)+(record_address&0xFF);
+			out.append(':');
+			appendHex(out, length, 2);
+			appendHex(out, record_address, 4);
+			appendHex(out, 0, 2);
+			for ( int i = start ; i < start+length ; ++i ) {
+				appendHex(out, code[i], 2);
+				sum += code[i]&0xFF;
+			}
+			appendHex(out, -sum, 2);
+			out.append('\n');
+		}
+	}
+
+	private static void appendHex ( Appendable out , int value , int digits ) throws IOException {
+		for ( int i = digits-1 ; i >= 0 ; --i ) {
+			out.append(Character.toUpperCase(Character.forDigit((value>>(4*i))&0xF, 16)));
+		}
+	}
+
+	/**
+	 * writes the opcode of a single instruction and the bytes that follow it
+	 * @param code - the instruction code as seen in assembler compiler
+	 * @param labels - the addresses of the labels, null if they are not known yet
+	 * @param out - where the bytes are written to
+	 */
+	private static void encode ( String code , HashMap<String,Integer> labels , ByteArrayOutputStream out ) {
+		code = code.trim();
+		int space = code.indexOf(' ');
+		String mnemonic = space == -1?code:code.substring(0, space);
+		String operands[] = space == -1?new String[0]:code.substring(space+1).split(",");
+		for ( int i = 0 ; i < operands.length ; ++i ) operands[i] = operands[i].trim();
+		if ( implied.containsKey(mnemonic) && operands.length == 0 ) {
+			out.write(implied.get(mnemonic));
+		}
+		else if ( register_low.containsKey(mnemonic) && operands.length == 1 ) {
+			out.write(register_low.get(mnemonic)|getRegister(operands[0], code));
+		}
+		else if ( mnemonic.equals("MVI") && operands.length == 2 ) {
+			out.write(register_high.get(mnemonic)|getRegister(operands[0], code)<<3);
+			writeNumber(operands[1], 1, labels, code, out);
+		}
+		else if ( register_high.containsKey(mnemonic) && !mnemonic.equals("MVI") && operands.length == 1 ) {
+			out.write(register_high.get(mnemonic)|getRegister(operands[0], code)<<3);
+		}
+		else if ( mnemonic.equals("MOV") && operands.length == 2 ) {
+			int opcode = 0x40|getRegister(operands[0], code)<<3|getRegister(operands[1], code);
+			//MOV M,M would be HLT
+			if ( opcode == 0x76 ) throw new IllegalArgumentException(code+" is not an 8085 instruction");
+			out.write(opcode);
+		}
+		else if ( mnemonic.equals("LXI") && operands.length == 2 ) {
+			out.write(register_pair.get(mnemonic)|getRegisterPair(operands[0], false, code)<<4);
+			writeNumber(operands[1], 2, labels, code, out);
+		}
+		else if ( register_pair.containsKey(mnemonic) && !mnemonic.equals("LXI") && operands.length == 1 ) {
+			boolean stack = mnemonic.equals("PUSH") || mnemonic.equals("POP");
+			out.write(register_pair.get(mnemonic)|getRegisterPair(operands[0], stack, code)<<4);
+		}
+		else if ( immediate.containsKey(mnemonic) && operands.length == 1 ) {
+			out.write(immediate.get(mnemonic));
+			writeNumber(operands[0], 1, labels, code, out);
+		}
+		else if ( address.containsKey(mnemonic) && operands.length == 1 ) {
+			out.write(address.get(mnemonic));
+			writeNumber(operands[0], 2, labels, code, out);
+		}
+		else throw new IllegalArgumentException(code+" is not an 8085 instruction");
+	}
+
+	private static int getRegister ( String name , String code ) {
+		Integer res = registers.get(name);
+		if ( res == null ) throw new IllegalArgumentException(name+" is not an 8085 register, in "+code);
+		return res;
+	}
+
+	/**
+	 * @param stack - true for PUSH and POP, they use PSW instead of SP
+	 */
+	private static int getRegisterPair ( String name , boolean stack , String code ) {
+		if ( stack && name.equals("PSW") ) return 3;
+		Integer res = register_pairs.get(name);
+		if ( res == null || ( stack && res == 3 ) ) throw new IllegalArgumentException(name+" is not an 8085 register pair, in "+code);
+		return res;
+	}
+
+	/**
+	 * writes a number or the address of a label, the low byte first
+	 * @param bytes - 1 for 8 bit data, 2 for 16 bit data or addresses
+	 */
+	private static void writeNumber ( String operand , int bytes , HashMap<String,Integer> labels , String code , ByteArrayOutputStream out ) {
+		int value = 0;
+		if ( labels != null || Character.isDigit(operand.charAt(0)) ) {
+			Integer label = labels != null?labels.get(operand):null;
+			value = label != null?label:parseNumber(operand, code);
+		}
+		if ( value < 0 || value >= 1<<(8*bytes) ) throw new IllegalArgumentException(operand+" doesn't fit in "+bytes+" bytes, in "+code);
+		for ( int i = 0 ; i < bytes ; ++i ) {
+			out.write(value>>(8*i));
+		}
+	}
+
+	private static int parseNumber ( String operand , String code ) {
+		try {
+			if ( operand.endsWith("H") || operand.endsWith("h") ) {
+				return Integer.parseInt(operand.substring(0, operand.length()-1), 16);
+			}
+			return Integer.parseInt(operand);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(operand+" is neither a number nor a label, in "+code);
+		}
+	}
+
+	/**
+	 * collects the instructions and the labels written by an executable, instead of writing them
+	 */
+	private static class Listing extends AssemblyWriter {
+
+		/**
+		 * the instruction codes, null for a label with no instruction after it
+		 */
+		final ArrayList<String> codes = new ArrayList<String>();
+
+		/**
+		 * the label before each instruction, null if it has none
+		 */
+		final ArrayList<String> labels = new ArrayList<String>();
+
+		private String label;
+
+		Listing() {
+			super(null);
+		}
+
+		@Override
+		public AssemblyWriter label ( String label ) {
+			finish();
+			this.label = label;
+			return this;
+		}
+
+		@Override
+		public AssemblyWriter instruction ( String code ) {
+			codes.add(code);
+			labels.add(label);
+			label = null;
+			return this;
+		}
+
+		@Override
+		public void finish() {
+			if ( label != null ) {
+				codes.add(null);
+				labels.add(label);
+				label = null;
+			}
+		}
+
+	}
+
+}
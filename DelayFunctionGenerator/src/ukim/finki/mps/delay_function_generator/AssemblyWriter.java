@@ -0,0 +1,95 @@
+package ukim.finki.mps.delay_function_generator;
+import java.io.IOException;
+
+/**
+ * writes executables as assembler code, one instruction per line, straight to an Appendable such as a Writer or a StringBuilder
+ * so the code of a delay function doesn't have to be kept as a String before it is written to a file
+ * 
+ * a label is written on the same line as the instruction that follows it:
+ * 
+ * 			MVI B,value
+ * loop1:	DCR B
+ * 			JNZ loop1
+ * 
+ * the indent is written before every instruction, after the label if there is one, it is empty by default
+ * many executables can be written one after the other with the same writer, call finish after the last one
+ * @author Andrej Gajduk
+ *
+ */
+public class AssemblyWriter {
+
+	/**
+	 * where the code is written to
+	 */
+	private final Appendable out;
+
+	/**
+	 * written before every instruction
+	 */
+	private final String indent;
+
+	/**
+	 * the label to be written before the next instruction, null if there is none
+	 */
+	private String label;
+
+	/**
+	 * @param out - where the code is written to
+	 */
+	public AssemblyWriter ( Appendable out ) {
+		this(out, "");
+	}
+
+	/**
+	 * @param out - where the code is written to
+	 * @param indent - written before every instruction, after the label if there is one
+	 */
+	public AssemblyWriter ( Appendable out , String indent ) {
+		this.out = out;
+		this.indent = indent;
+	}
+
+	/**
+	 * writes an executable and everything in it
+	 * @param exec - the executable, nothing is written if it is null
+	 */
+	public AssemblyWriter write ( Executable exec ) throws IOException {
+		if ( exec != null ) exec.write(this);
+		return this;
+	}
+
+	/**
+	 * the label will be written on the same line as the next instruction
+	 * @param label - the label, without the ':'
+	 */
+	public AssemblyWriter label ( String label ) throws IOException {
+		//two labels in a row, the first one gets a line of its own
+		finish();
+		this.label = label;
+		return this;
+	}
+
+	/**
+	 * writes a single instruction on a line of its own
+	 * @param code - the instruction code as seen in assembler compiler
+	 */
+	public AssemblyWriter instruction ( String code ) throws IOException {
+		if ( label != null ) {
+			out.append(label).append(':');
+			label = null;
+		}
+		out.append(indent).append(code).append('\n');
+		return this;
+	}
+
+	/**
+	 * writes the label that is waiting for an instruction, if there is one, call after the last executable is written
+	 */
+	public void finish() throws IOException {
+		if ( label != null ) {
+			out.append(label).append(":\n");
+			label = null;
+		}
+	}
+
+}
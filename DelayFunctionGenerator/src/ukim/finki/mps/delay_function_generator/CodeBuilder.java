@@ -1,45 +1,213 @@
 package ukim.finki.mps.delay_function_generator;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * used to generate single instructions,
  * code segments and loops
+ * one CodeBuilder can be shared between threads, every delay function is generated in a copy of it made by the fork method,
+ * the copy holds all the state of that generation, the CodeBuilder itself only holds the settings and the remembered results
  * @author Andrej Gajduk
  */
 public class CodeBuilder {
 	
 	/**
 	 * specifies the instruction set, i.e. the mP for the delay function
+	 * set for each generation in the copy that does it
 	 */
 	private InstructionSet instruction_set;
 	
 	/**
-	 * out of all the instructions in the instruction set only a subset are available concerning the elements of the mP our delay
-	 * function is allowed to use, this array list contains only those instructions, they are the instructions that will be used
-	 * when generating out delay function
+	 * the instruction codes for all possible build-able durations of code,
+	 * made only of the instructions available concerning the elements of the mP our delay function is allowed to use
+	 * set by the precomputeAllPossibleDurations method, in the copy that does the generation
 	 */
-	private ArrayList<InstructionData> instructions_available;
+	private DurationTable possible_durations;
 	
 	/**
-	 * an array that contains the instruction codes for all possible build-able durations of code
-	 * possible_duration[i] == null if the duration i can not be achieved by the available instructions
-	 * otherwise possible_durations[i] will contain an array list of instructions that last exactly i-states
+	 * the maximum number of instructions for the code taken from the possible_durations table
+	 * set by the precomputeAllPossibleDurations method, in the copy that does the generation
 	 */
-	private Executable[] possible_durations;
+	private int duration_limit;
+	
+	/**
+	 * when true the loop-less code segments are the smallest ones in bytes, out of all the segments with the least number of instructions
+	 * read once when a generation starts
+	 */
+	private volatile boolean smallest_code = false;
+	
+	/**
+	 * delays longer than this are computed directly by the buildLongDelay method instead of being searched for,
+	 * in T-states of the mP, a few seconds for most 8085 clocks
+	 */
+	private static final long long_delay_threshold = 1<<24;
+	
+	/**
+	 * the maximum number of instructions in each of the loop-less code segments made by the buildLongDelay method
+	 */
+	private static final int long_delay_padding_limit = 6;
+	
+	/**
+	 * the maximum number of loop search results remembered by the loop_search_memo
+	 */
+	private static final int loop_search_memo_size = 1<<14;
+	
+	/**
+	 * results of previous searches in the buildLoop method, for both the successful and the failed ones,
+	 * a failed search is remembered with a null value
+	 * the same sub-problems are visited many times during one search, and again for every delay function built with this CodeBuilder
+	 * shared by all the copies of this CodeBuilder, the key tells apart the results made with different settings
+	 */
+	private LruCache<LoopSearchKey,Executable> loop_search_memo = new LruCache<LoopSearchKey,Executable>(loop_search_memo_size);
+	
+	/**
+	 * the upper bounds for the duration of loops computed by the getLoopUpperBound method,
+	 * for the mP, the elements available, the memory locations used and the instruction limit
+	 */
+	private LruCache<String,Long> loop_bound_memo = new LruCache<String,Long>(loop_search_memo_size);
+	
+	/**
+	 * the register pairs that can hold the counter of a type 1 loop structure, encoded as in the Elements class, BC, DE and HL
+	 */
+	private static final int loop_register_pairs[] = { 2+4 , 8+16 , 32+64 };
+	
+	/**
+	 * the register a type 1 loop structure needs besides its register pair, encoded as in the Elements class, A,
+	 * DCX doesn't set the flags so the register pair is tested for zero through it, 
+	 * it's value is not kept by the loop logic, but it can be used freely in the loop body
+	 */
+	private static final int loop_register_pair_test = 1;
+	
+	private static final String loop_register_pair_names[][] = { { "B" , "C" } , { "D" , "E" } , { "H" , "L" } };
+	
+	/**
+	 * the registers that can hold the counter of a type 2 loop structure, encoded as in the Elements class, B, C, D, E, A, H and L
+	 */
+	private static final int loop_registers[] = { 2 , 4 , 8 , 16 , 1 , 32 , 64 };
+	
+	private static final String loop_register_names[] = { "B" , "C" , "D" , "E" , "A" , "H" , "L" };
+	
+	/**
+	 * all of the loop_registers together, without any of them no loop can be built
+	 */
+	private static final int loop_registers_mask = 1+2+4+8+16+32+64;
+	
+	/**
+	 * when the estimated number of nested instructions is larger than this,
+	 * some registers are released for the loop logic by storing their values temporarily in memory or on the stack
+	 */
+	private static final int nested_instructions_limit = 30;
+	
+	/**
+	 * the register pairs that can be pushed on the stack and popped back, encoded as in the Elements class, A with the flags, BC, DE and HL
+	 */
+	private static final int spill_register_pairs[] = { 1 , 2+4 , 8+16 , 32+64 };
+	
+	/**
+	 * the first register of each of the spill_register_pairs, the PUSH and POP instructions are chosen by it
+	 */
+	private static final String spill_register_pair_names[] = { "A" , "B" , "D" , "H" };
+	
+	/**
+	 * the number of threads used for a search, 1 for searching only in the calling thread
+	 * read once when a generation starts
+	 */
+	private int parallelism = 1;
+	
+	/**
+	 * the threads used for searching in parallel, null when the search is sequential
+	 * read once when a generation starts
+	 */
+	private ExecutorService search_pool;
+	
+	/**
+	 * set when the result of the search is no longer needed, the search will give up as soon as it notices
+	 */
+	private volatile boolean stopped = false;
+	
+	/**
+	 * the value of System.nanoTime() at which the search should give up, no_deadline if it has as much time as it needs
+	 */
+	private volatile long deadline = no_deadline;
+	
+	private static final long no_deadline = 0;
+	
+	/**
+	 * the CodeBuilder this one is a copy of, made by the fork method, null if it is not a copy
+	 */
+	private CodeBuilder parent;
 
 	/**
 	 * set the instruction_set to be of the specified mP
+	 * the remembered results are kept, they are told apart by the mP they were made for
 	 * @param mP - the mP we will use to set the instruction set
 	 */
 	public void setInstructionSet(String mP) {
 		instruction_set = InstructionSet.getInstance(mP);
 	}
 	
+	/**
+	 * choose how the loop-less code segments are made, 
+	 * they always have the least possible number of instructions for their duration,
+	 * @param smallest_code - true if out of those the smallest one in bytes should be used, false if any one of them will do
+	 */
+	public void setSmallestCode(boolean smallest_code) {
+		this.smallest_code = smallest_code;
+	}
+	
+	/**
+	 * @return the smallest_code
+	 */
+	public boolean isSmallestCode() {
+		return smallest_code;
+	}
+	
+	/**
+	 * choose how many threads are used for generating a delay function,
+	 * with more than one thread the registers and register pairs available for the outer loop are tried at the same time,
+	 * and the numbers of iterations of the outer loop are split between the threads,
+	 * a single thread tries the same ones one after another, so the result is the same, only the time it takes changes
+	 * @param parallelism - the number of threads, 1 for using only the thread that calls buildDelayFunction
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		if ( search_pool != null ) {
+			//the generations that have already started with it finish their searches in their own threads
+			search_pool.shutdown();
+			search_pool = null;
+		}
+		this.parallelism = parallelism > 1?parallelism:1;
+		if ( this.parallelism > 1 ) {
+			search_pool = Executors.newFixedThreadPool(this.parallelism, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					//the threads should not keep the application running
+					Thread res = new Thread(r, "CodeBuilder search");
+					res.setDaemon(true);
+					return res;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * @return the parallelism
+	 */
+	public synchronized int getParallelism() {
+		return parallelism;
+	}
+	
 	/**
 	 * the method to be used for generating delay functions 
 	 * this method will try to make a function with least possible instructions
@@ -57,135 +225,304 @@ public class CodeBuilder {
 	 * *further notice: the default instruction limit should be dependent on the duration of the delay function required
 	 * **further notice: the error allowed for the duration of the delay function should be reverse-proportional to the interval size		
 	 */
-	private DelayFunction buildDelayFunction ( long min_time , long max_time , String mP , Element elements_usable[] , DelayFunction res , boolean ret_is_required ) {
+	private DelayFunction makeDelayFunction ( long min_time , long max_time , String mP , Element elements_usable[] , boolean ret_is_required ) {
 		setInstructionSet(mP);
+		if ( ret_is_required ) {
+			elements_usable = keepStackPointer(elements_usable);
+		}
 		long n = getMaximumNumberofIterationsWhenNestingLoops(new Elements(elements_usable));
-		long k = getMaximumDurationWhenNestingLoops(new Elements(elements_usable));
-		int l = (int) ((min_time-k) / (n*4));
+		long l = getNumberOfNestedInstructions(min_time, new Elements(elements_usable));
 		int loop_instructions = (int) ( Math.log(n)/ Math.log(256) ) * 3;
 		// do the math if it can't be done tell the user to go f.ck himself
-		if ( res == null ) {
-		    res = new DelayFunction();
-		    res.init_instructions = new InstructionGroup();
-		    res.finalize_instrucions = new InstructionGroup();
-		    if ( ret_is_required )
-		    	res.return_instruction = instruction_set.getRetInstrcution();
-		}
+		ArrayList<Executable> init_instructions = new ArrayList<Executable>();
+		ArrayList<Executable> finalize_instructions = new ArrayList<Executable>();
+		Executable return_instruction = ret_is_required?instruction_set.getRetInstrcution():null;
 		// l - number of nested instructions to add to get this duration, if this is large > 20~30
 		// consider making some more room for the mP loop_logic to operate by releasing some registers
 		// store their value temporarily in some memory locations or on top of stack
 		
-		if ( l > 30 ) {
-			//try releasing some registers
-			//first find a register that is currently occupied
-			Elements els = new Elements(elements_usable);
-			int reg = -1;
-			for ( int i = 0 ; i < 7 ; ++i ) {
-				if ( ((1<<i)&els.getE()) == 0 ) {
-					reg = i; break;
-				}
-			}
-			if ( reg == -1 ) {
+		if ( l > nested_instructions_limit ) {
+			elements_usable = spillRegisters(min_time, elements_usable, init_instructions, finalize_instructions);
+			if ( elements_usable == null ) {
 				//come on this can't be happening
 				//warn the user that there will be many instructions, if he is okay with that go on, otherwise quit
 				return null;
 			}
-			String reg_s = els.getRegister(reg);
-			int temporarly_location_found = -1;
-			for ( int i = 0 ; i < elements_usable.length ; ++i ) {
-				if ( elements_usable[i].type == Element.MEMORY ) {
-					if ( elements_usable[i].status.equals(Element.available) ) {
-						temporarly_location_found = i;
-						//if it is not the A register, we are in serious shit, we need first to move an data to the A register then
-						//transfer it to memory
-						if ( reg != 0 ) {
-								((InstructionGroup)res.init_instructions).append(instruction_set.getMoveInstruction("A",reg_s));
-						}
-						((InstructionGroup)res.init_instructions).append(instruction_set.getStoreInstruction(elements_usable[i].description));
-						if (  reg != 0 ) {
-							((InstructionGroup)res.finalize_instrucions).insert(instruction_set.getMoveInstruction(reg_s,"A"));
-							((InstructionGroup)res.finalize_instrucions).insert(instruction_set.getLoadInstruction(elements_usable[i].description));
-						}
-						else {	
-							((InstructionGroup)res.finalize_instrucions).append(instruction_set.getLoadInstruction(elements_usable[i].description));
-						}
-						break;
-					}
-				}
-			}
-			if ( temporarly_location_found == -1 ) {
-				//okay no free memory locations to store some data, try the stack
-				for ( int i = 0 ; i < elements_usable.length ; ++i ) {
-					if ( elements_usable[i].type == Element.STACK ) {
-						if ( elements_usable[i].status.equals(Element.available) &&
-								elements_usable[i].description.equals(Element.STACK_VALID)) {
-							temporarly_location_found = i;
-							//if it is not the A register, we are in serious shit, we need first to move an data to the A register then
-							//transfer it to memory
-							//we might have already saved register C when we were trying to save register B, no need to push the same data twice
-							if ( !((InstructionGroup)res.init_instructions).contains(instruction_set.getPushInstruction(reg_s)) ) {
-								((InstructionGroup)res.init_instructions).append(instruction_set.getPushInstruction(reg_s));
-							}
-							if ( !((InstructionGroup)res.finalize_instrucions).contains(instruction_set.getPopInstruction(reg_s)) ) {
-								((InstructionGroup)res.finalize_instrucions).insert(instruction_set.getPopInstruction(reg_s));
-							}
-							break;
-						}
-					}
-					
-				}
-				if ( temporarly_location_found == -1 ) {
-					//come on this can't be happening
-					//warn the user that there will be many instructions, if he is okay with that go on, otherwise quit
-					return null;
-				}
-				temporarly_location_found = -1;
-				
-			}
-			//if we used the stack, add a new Element for the register, the stack element remains
-			//if we used a memory location remove it from the elements_usable array, and also add a new element for the register
-			if ( temporarly_location_found == -1 ) {
-				Element next_elements_usable[] = new Element[elements_usable.length+1];
-				for ( int i = 0 ; i < elements_usable.length ; ++i ) next_elements_usable[i] = elements_usable[i];
-				next_elements_usable[elements_usable.length] = new Element(Element.REGISTER,reg_s);
-				elements_usable = next_elements_usable;
-			}
-			else {
-				elements_usable[temporarly_location_found] = new Element(Element.REGISTER, reg_s);
-			}
-			return buildDelayFunction(min_time, max_time, mP, elements_usable, res , ret_is_required);
+			n = getMaximumNumberofIterationsWhenNestingLoops(new Elements(elements_usable));
+			l = getNumberOfNestedInstructions(min_time, new Elements(elements_usable));
+			loop_instructions = (int) ( Math.log(n)/ Math.log(256) ) * 3;
 		}
-		int instruction_limit = l>0?l:0+loop_instructions+res.length();
+		//from here on l is not larger than nested_instructions_limit
+		//the function without its main instructions, they are found next
+		DelayFunction res = new DelayFunction(new InstructionGroup(init_instructions), null, new InstructionGroup(finalize_instructions), return_instruction);
+		int instruction_limit = (int) ((l>0?l:0)+loop_instructions+res.length());
 		
 		min_time -= res.time();
 		max_time -= res.time();
 		if ( max_time < 0 ) return null;
-		while ( instruction_limit < 40 ) {
-			res.main_instructions = buildDelayFunction(min_time, max_time, elements_usable,instruction_limit);
-			if ( res.main_instructions != null ) break;
+		if ( min_time > long_delay_threshold ) {
+			//too long for searching, compute it directly
+			Executable main_instructions = buildLongDelay(min_time, max_time, elements_usable);
+			if ( main_instructions != null ) return withMainInstructions(res, main_instructions);
+		}
+		//the table knows the least number of instructions for every loop-less duration,
+		//so once the instruction limit is large enough for a loop-less code there is no need to try the next limits one by one
+		precomputeAllPossibleDurations(elements_usable, DurationTable.max_instruction_limit-1);
+		DurationTable possible_durations = this.possible_durations;
+		int least_length = possible_durations.getLeastLength(min_time, max_time);
+		Executable main_instructions = null;
+		while ( instruction_limit < DurationTable.max_instruction_limit ) {
+			if ( least_length > instruction_limit && min_time <= possible_durations.getMaximumDuration(instruction_limit) ) {
+				instruction_limit = least_length;
+			}
+			main_instructions = buildDelayFunction(min_time, max_time, elements_usable,instruction_limit);
+			if ( main_instructions != null || isStopped() ) break;
 			++instruction_limit;
 		}
+		return withMainInstructions(res, main_instructions);
+	}
+	
+	/**
+	 * @param res - a delay function without main instructions
+	 * @param main_instructions - the main instructions found for it
+	 * @return the same delay function with the main instructions set
+	 */
+	private static DelayFunction withMainInstructions ( DelayFunction res , Executable main_instructions ) {
+		return new DelayFunction(res.init_instructions, main_instructions, res.finalize_instrucions, res.return_instruction);
+	}
+	
+	/**
+	 * used to roughly estimate the number of nested instructions needed for a duration, when all the registers available are used for loops,
+	 * if this is large consider making some more room for the loop logic by releasing some registers
+	 * @param min_time - lower bound for the duration of the delay function
+	 * @param elements - elements available for making loops, only the registers are of interest
+	 * @return the number of nested instructions
+	 */
+	private long getNumberOfNestedInstructions ( long min_time , Elements elements ) {
+		long n = getMaximumNumberofIterationsWhenNestingLoops(elements);
+		long k = getMaximumDurationWhenNestingLoops(elements);
+		return (min_time-k) / saturatedMultiply(n, 4);
+	}
+	
+	/**
+	 * releases some of the registers that are not available, so there are enough of them for the loop logic,
+	 * their values are stored temporarily in the free memory locations or on top of the stack and restored at the end of the function
+	 * all the ways of doing it are considered at once, pushing each of the register pairs on the stack and storing the registers in memory,
+	 * a register other than A is stored through A, so A must be available or released first
+	 * out of the ways that release enough registers the one with the least instructions is chosen, and then the one with the shortest duration
+	 * @param min_time - lower bound for the duration of the delay function
+	 * @param elements_usable - the elements available to the function
+	 * @param init_instructions - the instructions for storing are appended to these
+	 * @param finalize_instructions - the instructions for restoring are inserted in front of these
+	 * @return the elements available after releasing the registers, null if enough registers can't be released
+	 */
+	private Element[] spillRegisters ( long min_time , Element elements_usable[] , List<Executable> init_instructions , List<Executable> finalize_instructions ) {
+		Elements els = new Elements(elements_usable);
+		int occupied = ~els.getE()&loop_registers_mask;
+		boolean stack_usable = false;
+		ArrayList<Integer> memory_locations = new ArrayList<Integer>();
+		for ( int i = 0 ; i < elements_usable.length ; ++i ) {
+			if ( elements_usable[i] == null || !elements_usable[i].status.equals(Element.available) ) continue;
+			if ( elements_usable[i].type == Element.MEMORY ) {
+				memory_locations.add(i);
+			}
+			if ( elements_usable[i].type == Element.STACK && elements_usable[i].description.equals(Element.STACK_VALID) ) {
+				stack_usable = true;
+			}
+		}
+		Executable push = instruction_set.getPushInstruction("A") , pop = instruction_set.getPopInstruction("A");
+		Executable store = instruction_set.getStoreInstruction("0") , load = instruction_set.getLoadInstruction("0");
+		Executable move = instruction_set.getMoveInstruction("A","B");
+		int best_pushes = -1 , best_stores = 0 , best_length = Integer.MAX_VALUE;
+		long best_time = Long.MAX_VALUE;
+		//every subset of the register pairs is pushed, and then registers are stored in memory until there are enough of them
+		for ( int pushes = 0 ; pushes < (stack_usable?1<<spill_register_pairs.length:1) ; ++pushes ) {
+			int released = 0 , stores = 0 , length = 0;
+			long time = 0;
+			boolean useless = false;
+			for ( int i = 0 ; i < spill_register_pairs.length ; ++i ) {
+				if ( (pushes&1<<i) == 0 ) continue;
+				if ( (spill_register_pairs[i]&occupied) == 0 ) useless = true;
+				released |= spill_register_pairs[i]&occupied;
+				length += push.length()+pop.length();
+				time += push.time()+pop.time();
+			}
+			if ( useless ) continue;
+			int memory_locations_left = memory_locations.size();
+			for ( int i = 0 ; i < 7 && memory_locations_left > 0 && !isEnoughRegisters(min_time, els, released) ; ++i ) {
+				if ( ((1<<i)&occupied&~released) == 0 ) continue;
+				//the other registers are stored through A
+				if ( i != 0 && ((els.getE()|released)&1) == 0 ) break;
+				released |= 1<<i;
+				stores |= 1<<i;
+				--memory_locations_left;
+				length += store.length()+load.length()+(i != 0?2*move.length():0);
+				time += store.time()+load.time()+(i != 0?2*move.time():0);
+			}
+			if ( !isEnoughRegisters(min_time, els, released) ) continue;
+			if ( length < best_length || (length == best_length && time < best_time) ) {
+				best_pushes = pushes;
+				best_stores = stores;
+				best_length = length;
+				best_time = time;
+			}
+		}
+		if ( best_pushes == -1 ) return null;
+		ArrayList<Element> next_elements_usable = new ArrayList<Element>();
+		Collections.addAll(next_elements_usable, elements_usable);
+		//the pushes come first, A might be stored in memory through the stack 
+		for ( int i = 0 ; i < spill_register_pairs.length ; ++i ) {
+			if ( (best_pushes&1<<i) == 0 ) continue;
+			init_instructions.add(instruction_set.getPushInstruction(spill_register_pair_names[i]));
+			finalize_instructions.add(0, instruction_set.getPopInstruction(spill_register_pair_names[i]));
+			for ( int j = 0 ; j < 7 ; ++j ) {
+				if ( ((1<<j)&spill_register_pairs[i]&occupied) != 0 ) {
+					next_elements_usable.add(new Element(Element.REGISTER, els.getRegister(j)));
+				}
+			}
+		}
+		int memory_location = 0;
+		for ( int i = 0 ; i < 7 ; ++i ) {
+			if ( ((1<<i)&best_stores) == 0 ) continue;
+			int index = memory_locations.get(memory_location++);
+			String address = elements_usable[index].description , reg_s = els.getRegister(i);
+			if ( i != 0 ) {
+				init_instructions.add(instruction_set.getMoveInstruction("A",reg_s));
+				finalize_instructions.add(0, instruction_set.getMoveInstruction(reg_s,"A"));
+			}
+			init_instructions.add(instruction_set.getStoreInstruction(address));
+			finalize_instructions.add(0, instruction_set.getLoadInstruction(address));
+			//the memory location is used for storing, the register takes it's place
+			next_elements_usable.set(index, new Element(Element.REGISTER, reg_s));
+		}
+		return next_elements_usable.toArray(new Element[next_elements_usable.size()]);
+	}
+	
+	/**
+	 * the return instruction needs the stack pointer the function was called with, 
+	 * so the instructions that change it (LXI SP, INX SP, DCX SP and SPHL) can't be used even if the stack is not valid
+	 * @param elements_usable - the elements available to the function
+	 * @return the same elements, with a stack that is not valid replaced by one whose stack pointer is kept
+	 */
+	private static Element[] keepStackPointer ( Element elements_usable[] ) {
+		if ( elements_usable == null ) return null;
+		Element res[] = elements_usable.clone();
+		for ( int i = 0 ; i < res.length ; ++i ) {
+			if ( res[i] != null && res[i].type == Element.STACK && res[i].description.equals(Element.STACK_NOT_VALID) ) {
+				res[i] = new Element(Element.STACK_POINTER_KEPT, res[i].status, Element.STACK);
+			}
+		}
 		return res;
 	}
 	
 	/**
-	 * just used to set the default value of res to null
+	 * @param min_time - lower bound for the duration of the delay function
+	 * @param els - the elements available
+	 * @param released - the registers released in addition to the ones available, encoded as in the Elements class
+	 * @return true if the number of nested instructions needed is small enough with the released registers
+	 */
+	private boolean isEnoughRegisters ( long min_time , Elements els , int released ) {
+		Elements next = new Elements("", "0", "0");
+		next.setE(els.getE()|released);
+		return getNumberOfNestedInstructions(min_time, next) <= nested_instructions_limit;
+	}
+	
+	/**
+	 * the method to be used for generating delay functions, see makeDelayFunction
 	 */
 	public DelayFunction buildDelayFunction ( long min_time , long max_time , String mP , Element elements_usable[] , boolean ret_is_required ) {
-		return buildDelayFunction(min_time,max_time,mP,elements_usable,null,ret_is_required);
+		return fork(true).makeDelayFunction(min_time,max_time,mP,elements_usable,ret_is_required);
 	}
 		
+	/**
+	 * the method to be used for generating delay functions when there is a limit on how long it may take,
+	 * it will try to make a function with a duration in the interval [min_time,max_time] in the first half of the time,
+	 * then it will widen the interval around it, first by doubling the widening until a delay function is found,
+	 * and then by halving the difference between the widening that failed and the one that worked until the time runs out,
+	 * the delay function given back is the one with the closest duration found
+	 * @param min_time - lower bound for the duration of the delay function 
+	 * @param max_time - upper bound for the duration of the delay function
+	 * @param mP - string description for the microprocessor which instruction set should be used
+	 * @param elements_usable - descriptors for all the elements that are available to the function to operate with,
+	 * 		  such as registers and memory locations
+	 * @param ret_is_required - true if the function should end with a return instruction
+	 * @param budget - the time this method may take, it may take a bit longer to notice that the time has run out,
+	 * 		  the search for loops and the computing of long delays give up once it runs out, but the tables of loop-less code segments
+	 * 		  are made whole, each one is made only once for a set of elements and then remembered,
+	 * 		  so the first generation with some elements may take longer than its budget
+	 * @param unit - the unit of the budget
+	 * @return the delay function, and whether it has a duration in the interval [min_time,max_time] 
+	 * 		   or it is only the closest one found in time, the delay function is null if none was found
+	 */
+	public DelayFunctionResult buildDelayFunction ( long min_time , long max_time , String mP , Element elements_usable[] , 
+													boolean ret_is_required , long budget , TimeUnit unit ) {
+		long start = System.nanoTime();
+		long time = Math.max(unit.toNanos(budget), 2);
+		//the deadline belongs to this generation only
+		CodeBuilder request = fork(true);
+		request.deadline = start+time/2;
+		DelayFunction res = request.makeDelayFunction(min_time, max_time, mP, elements_usable, ret_is_required);
+		if ( isComplete(res, min_time, max_time) ) {
+			return new DelayFunctionResult(res, true);
+		}
+		request.deadline = start+time;
+		//first find by how much the interval has to be widened, by doubling it
+		DelayFunction best = null;
+		long failed_widening = 0;
+		long widening = Math.max(1, max_time-min_time);
+		while ( !request.isStopped() ) {
+			res = request.makeDelayFunction(Math.max(0, min_time-widening), saturatedAdd(max_time, widening), mP, elements_usable, ret_is_required);
+			if ( isComplete(res, Math.max(0, min_time-widening), saturatedAdd(max_time, widening)) ) {
+				best = res;
+				break;
+			}
+			if ( widening == Long.MAX_VALUE ) break;
+			failed_widening = widening;
+			widening = saturatedMultiply(widening, 2);
+		}
+		//then get closer by halving the difference between the widening that failed and the one that worked,
+		//any delay function found in a narrower interval may be closer than the best one so far
+		while ( best != null && widening-failed_widening > 1 && !request.isStopped() ) {
+			long next_widening = failed_widening+(widening-failed_widening)/2;
+			res = request.makeDelayFunction(Math.max(0, min_time-next_widening), saturatedAdd(max_time, next_widening), mP, elements_usable, ret_is_required);
+			if ( isComplete(res, Math.max(0, min_time-next_widening), saturatedAdd(max_time, next_widening)) ) {
+				if ( getDistance(res, min_time, max_time) < getDistance(best, min_time, max_time) ) best = res;
+				widening = next_widening;
+			}
+			else if ( !request.isStopped() ) {
+				failed_widening = next_widening;
+			}
+		}
+		return new DelayFunctionResult(best, false);
+	}
+	
+	/**
+	 * @return how far is the duration of the delay function from the interval [min_time,max_time], 0 if it is in it
+	 */
+	private static long getDistance ( DelayFunction delay_function , long min_time , long max_time ) {
+		if ( delay_function.time() < min_time ) return min_time-delay_function.time();
+		if ( delay_function.time() > max_time ) return delay_function.time()-max_time;
+		return 0;
+	}
+	
+	/**
+	 * @return true if the delay function is fully made and has a duration in the interval [min_time,max_time]
+	 */
+	static boolean isComplete ( DelayFunction delay_function , long min_time , long max_time ) {
+		if ( delay_function == null || delay_function.main_instructions == null ) return false;
+		if ( delay_function.main_instructions.toString().equals("NOT POSSIBLE") ) return false;
+		return delay_function.time() >= min_time && delay_function.time() <= max_time;
+	}
+	
 	/**
 	 * for this function to work the precomputeAllPossibledurations to have been called before
-	 * @return - an Executable that has duration in the interval [min_time,max_time]
+	 * @return - an Executable that has duration in the interval [min_time,max_time], the shortest such one
 	 */
 	private Executable getInstructionsForDuration ( long min_time , long max_time ) {
 		if ( max_time < 0 ) return null;
-		if ( min_time < 0 ) min_time = 0;
-		for ( int i = (int) min_time ; i <= max_time ; ++i ) {
-			if ( possible_durations[i] != null ) {
-				return possible_durations[i];
-			}
+		int duration = possible_durations.getNextPossible(min_time, duration_limit);
+		if ( duration != -1 && duration <= max_time ) {
+			return possible_durations.getExecutable(duration);
 		}
 		return null;
 	}
@@ -214,17 +551,20 @@ public class CodeBuilder {
 		
 		//first determine whether we need a loop
 		if ( min_time > getMaximumPossibleCreatedDuration() ) {
-			Executable []possible_durations = Arrays.copyOf(this.possible_durations, this.possible_durations.length);
+			//buildLoop will change the table, keep this one
+			DurationTable possible_durations = this.possible_durations;
 			//we need a loop
 			exec = buildLoop(min_time,max_time,elements_usable,instruction_limit,1);
-			for ( int i = 1 ; i < possible_durations.length ; ++i ) {
-				if ( possible_durations[i] != null ) {
-					if ( possible_durations[i].length()+3 <= instruction_limit ) {
-						exec = buildLoop(min_time-i,max_time-i,elements_usable,instruction_limit-possible_durations[i].length(),1);
-						if ( exec != null ) {
-							exec = new InstructionGroup(exec).insert(possible_durations[i]);
+			//only if the loop alone can't do it, try it with some loop-less code in front of it
+			for ( int i = 1 ; exec == null && i < possible_durations.size() ; ++i ) {
+				if ( possible_durations.isPossible(i,instruction_limit) ) {
+					if ( possible_durations.getLength(i)+3 <= instruction_limit ) {
+						Executable loop = buildLoop(min_time-i,max_time-i,elements_usable,instruction_limit-possible_durations.getLength(i),1);
+						if ( loop != null ) {
+							exec = new InstructionGroup(possible_durations.getExecutable(i), loop);
 							break;
 						}
+						if ( isStopped() ) break;
 					}
 				}
 			}
@@ -234,7 +574,7 @@ public class CodeBuilder {
 			exec = getInstructionsForDuration(min_time,max_time);
 			
 			//just duck-taping
-			if ( exec == null ) return new Instruction("NOT POSSIBLE",(int)min_time);
+			if ( exec == null ) return new Instruction("NOT POSSIBLE",min_time);
 		}
 		return exec;
 	}
@@ -256,6 +596,39 @@ public class CodeBuilder {
 	 * or create an AbstractBuilder
 	 */
 	private Executable buildLoop ( long min_time, long max_time, Element elements_usable[] , int instruction_limit , int nested_loops_counter ) {
+		int elements = new Elements(elements_usable).getE();
+		if ( (elements&loop_registers_mask) == 0 ) {
+			//there is no register for the loop logic, no need to remember that
+			return null;
+		}
+		Element memory_locations[] = getMemoryLocations(elements_usable);
+		LoopSearchKey key = new LoopSearchKey(instruction_set.mP, smallest_code, min_time, max_time, elements, 
+				memory_locations[0], memory_locations[1], nested_loops_counter, instruction_limit);
+		synchronized ( loop_search_memo ) {
+			if ( loop_search_memo.containsKey(key) ) {
+				return loop_search_memo.get(key);
+			}
+		}
+		Executable res = null;
+		//don't bother searching if no loop made of these elements can be that long, or that short
+		if ( max_time >= getLoopLowerBound(elements, instruction_limit) && min_time <= getLoopUpperBound(elements_usable, instruction_limit) ) {
+			res = searchLoop(min_time, max_time, elements_usable, instruction_limit, nested_loops_counter);
+		}
+		//a stopped search didn't finish, so it's result is not to be remembered
+		if ( !isStopped() ) {
+			synchronized ( loop_search_memo ) {
+				loop_search_memo.put(key, res);
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * does the actual search for the buildLoop method, when the result is not remembered from before
+	 * the parameters are the same as in buildLoop
+	 * @return a loop with an execution time that falls in the interval [min_time,max_time], null if there is none
+	 */
+	private Executable searchLoop ( long min_time, long max_time, Element elements_usable[] , int instruction_limit , int nested_loops_counter ) {
 		/*
 		 * 8085 manual reference:
 		 * there will be two loop structures:
@@ -267,10 +640,12 @@ public class CodeBuilder {
 		 *  	   OTHER_INSTRUCTION
 		 *         ...
 		 *         DCX Rpair
+		 *         MOV A,Rhigh
+		 *         ORA Rlow
 		 *         JNZ label
 		 *         
 		 *   Rpair can be any of the following pairs of registers BC, DE , HL
-		 *   both registers need to be available for this to work
+		 *   both registers and A need to be available for this to work, DCX doesn't set the flags
 		 *   it can execute for maximum of 2^16-1 iteration
 		 *   
 		 * the second one is:
@@ -295,90 +670,216 @@ public class CodeBuilder {
 			return null;
 		}
 		//check if we have the required resources for building loops
-		boolean case_one = false;
-		boolean case_two = false;
-		Elements el = new Elements(elements_usable);
-		int bc_pair = 2+4;
-		int de_pair = 8+16;
-		int hl_pair = 64+128;
-		if ( (bc_pair&el.getE()) == bc_pair ||
-			 (de_pair&el.getE()) == de_pair ||
-			 (hl_pair&el.getE()) == hl_pair	) {
-			case_one = true;
-		}
-		if ( (el.getE()&((1<<8)-1)) > 0 ) {
-			case_two = true;
-		}
-		//memorize some of the parameters, cause we will change them
-		long temp_min_time = min_time;
-		long temp_max_time = max_time;
-		
-		//the loops structure instructions are a must so we need to subtract them, conveniently they are the same in both cases so do that here
-		instruction_limit -= 3;
-		
-		if ( case_one ) {
-			//we have the necessary resources for building a type 1 loop structure
-			//first choose which register pair we should use, if possible choose BC or DE before HL
-			String reg_pair = ""; String reg_pair_other_reg = "";
-			if ( (bc_pair&el.getE()) == bc_pair ) {reg_pair = "B"; reg_pair_other_reg = "C"; } else 
-			if ( (de_pair&el.getE()) == de_pair ) {reg_pair = "D"; reg_pair_other_reg = "E"; }
-			else  {reg_pair = "H"; reg_pair_other_reg = "L"; }
-			
-			int init_instruction_duration = instruction_set.getInitInstructionsDuration(instruction_set.loop_type_16b);
-			int loop_logic_instructions_duration = instruction_set.getLoopLogicInstructionsDuration(instruction_set.loop_type_16b);
-			min_time -= init_instruction_duration;
-			max_time -= init_instruction_duration;
-			int min_iterations = 2;
-			int max_iterations = (int) ((1<<16)-1>max_time/loop_logic_instructions_duration ? max_time/loop_logic_instructions_duration:(1<<16)-1);
-			
-			
-			//we have already decided which elements to use to get the loop logic so remove them from the list of available elements
-			Element next_elements_usable[] = removeUsedRegisters(elements_usable, reg_pair , reg_pair_other_reg);
-			precomputeAllPossibleDurations(next_elements_usable,instruction_limit);	
-			Loop res = buildLoopByDeterminingInitValue(min_iterations, max_iterations, min_time, max_time, next_elements_usable, 
-					   instruction_limit, nested_loops_counter, reg_pair, instruction_set.loop_type_16b);
+		//every register and register pair is tried for the outermost loop, only the first ones for the inner loops,
+		//the same ones no matter how many threads there are, only the outermost loop is searched for in parallel
+		ArrayList<String[]> loop_registers = getLoopRegisters(new Elements(elements_usable), nested_loops_counter == 1);
+		if ( search_pool != null && nested_loops_counter == 1 && loop_registers.size() > 1 ) {
+			return buildLoopInParallel(min_time, max_time, elements_usable, instruction_limit, nested_loops_counter, loop_registers);
+		}
+		for ( String[] registers : loop_registers ) {
+			//only try the next one if we have failed with this one,just to remind you we are looking for A solution
+			//not the best one, not the shortest one, just A solution
+			Loop res = buildLoop(min_time, max_time, elements_usable, instruction_limit, nested_loops_counter, registers);
 			if ( res != null ) return res;
-			
 		}
-		//only try case two if we have failed with case one,just to remind you we are looking for A solution
-		//not the best one, not the shortest one, just A solution
-		//return the parameters old values
-		min_time = temp_min_time;
-		max_time = temp_max_time;
+		return null;
+	}
+	
+	/**
+	 * finds which registers can be used for the loop logic,
+	 * register pairs for a type 1 loop structure come first, if possible choose BC or DE before HL, only when A is available as well,
+	 * then single registers for a type 2 loop structure, in next order of priority B,C,D,E,A,H,L
+	 * @param el - the elements available
+	 * @param all - true if all the possibilities are needed, false if only the first register pair and the first register are needed
+	 * @return - a list of registers, a register pair is given as an array of its two registers, a single register as an array of one
+	 */
+	private ArrayList<String[]> getLoopRegisters ( Elements el , boolean all ) {
+		ArrayList<String[]> res = new ArrayList<String[]>();
+		for ( int i = 0 ; i < loop_register_pairs.length ; ++i ) {
+			if ( isPairUsable(loop_register_pairs[i], el.getE()) ) {
+				res.add(loop_register_pair_names[i]);
+				if ( !all ) break;
+			}
+		}
+		for ( int i = 0 ; i < loop_registers.length ; ++i ) {
+			if ( (loop_registers[i]&el.getE()) == loop_registers[i] ) {
+				res.add(new String[] { loop_register_names[i] });
+				if ( !all ) break;
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * @param pair - a register pair, encoded as in the Elements class
+	 * @param elements - the elements available, encoded as in the Elements class
+	 * @return true if the register pair can hold the counter of a type 1 loop structure
+	 */
+	private static boolean isPairUsable ( int pair , int elements ) {
+		return ((pair|loop_register_pair_test)&elements) == (pair|loop_register_pair_test);
+	}
+	
+	/**
+	 * tries to build a loop that uses the given registers for it's logic
+	 * the parameters are the same as in buildLoop
+	 * @param registers - the register pair for a type 1 loop structure (LXI,DCX,MOV,ORA), or a single register for a type 2 loop structure (MVI,DCR)
+	 * @return a loop with an execution time that falls in the interval [min_time,max_time], null if there is none
+	 */
+	private Loop buildLoop ( long min_time, long max_time, Element elements_usable[] , int instruction_limit , int nested_loops_counter , String[] registers ) {
+		int loop_type = registers.length == 2?InstructionSet.loop_type_16b:InstructionSet.loop_type_8b;
+		int max_loop_iterations = registers.length == 2?(1<<16)-1:(1<<8)-1;
+		//the loops structure instructions are a must so we need to subtract them
+		instruction_limit -= instruction_set.getLoopLogicInstructionsLength(loop_type);
+		if ( instruction_limit < 0 ) return null;
 		
-		if ( case_two ) {
-			//we have the necessary resources for building a type 2 loop structure
-			//first choose which register we should use, if possible choose in next order of priority B,C,D,E,A,H,L
-			String reg = "";
-			if ( (2&el.getE()) == 2 ) reg = "B"; else 
-			if ( (4&el.getE()) == 4 ) reg = "C"; else 
-			if ( (8&el.getE()) == 8 ) reg = "D"; else 
-			if ( (16&el.getE()) == 16 ) reg = "E"; else 	 			
-			if ( (1&el.getE()) == 1 ) reg = "A"; else 
-			if ( (64&el.getE()) == 64 ) reg = "H";		
-			else reg = "L";	
-			
-			//the loops structure instructions are a must so we need to subtract them
-			int init_instruction_duration = instruction_set.getInitInstructionsDuration(instruction_set.loop_type_8b);
-			int loop_logic_instructions_duration = instruction_set.getLoopLogicInstructionsDuration(instruction_set.loop_type_8b);
-			min_time -= init_instruction_duration;
-			max_time -= init_instruction_duration;
-			int min_iterations = 2;
-			int max_iterations = (int) ((1<<8)-1<max_time/loop_logic_instructions_duration ? (1<<8)-1 : max_time/loop_logic_instructions_duration);
-			
-			
-			//we have already decided which elements to use to get the loop logic so remove them from the list of available elements
-			Element next_elements_usable[] = removeUsedRegisters(elements_usable,reg);
-			
-			precomputeAllPossibleDurations(next_elements_usable,instruction_limit);	
-			
-			Loop res = buildLoopByDeterminingInitValue(min_iterations, max_iterations, min_time, max_time, next_elements_usable, 
-							instruction_limit, nested_loops_counter, reg, instruction_set.loop_type_8b);
-			if ( res != null ) return res;
+		int init_instruction_duration = instruction_set.getInitInstructionsDuration(loop_type);
+		int loop_logic_instructions_duration = instruction_set.getLoopLogicInstructionsDuration(loop_type);
+		min_time -= init_instruction_duration;
+		max_time -= init_instruction_duration;
+		int min_iterations = 2;
+		int max_iterations = (int) (max_loop_iterations>max_time/loop_logic_instructions_duration ? max_time/loop_logic_instructions_duration:max_loop_iterations);
+		
+		//we have already decided which elements to use to get the loop logic so remove them from the list of available elements
+		Element next_elements_usable[] = removeUsedRegisters(elements_usable, registers);
+		precomputeAllPossibleDurations(next_elements_usable,instruction_limit);	
+		return buildLoopByDeterminingInitValue(min_iterations, max_iterations, min_time, max_time, next_elements_usable, 
+				   instruction_limit, nested_loops_counter, registers[0], loop_type);
+	}
+	
+	/**
+	 * tries all the loop registers at the same time, each one in a copy of this CodeBuilder run by the search_pool
+	 * the result is the same one a sequential search through the loop registers would give, the first one in the list that works,
+	 * once we have it the searches for the ones after it are stopped
+	 * the parameters are the same as in buildLoop
+	 * @param loop_registers - the registers to be tried, in order of priority
+	 * @return a loop with an execution time that falls in the interval [min_time,max_time], null if there is none
+	 */
+	private Loop buildLoopInParallel ( final long min_time, final long max_time, final Element elements_usable[] , final int instruction_limit , 
+									   final int nested_loops_counter , ArrayList<String[]> loop_registers ) {
+		ArrayList<CodeBuilder> builders = new ArrayList<CodeBuilder>();
+		ArrayList<FutureTask<Loop>> searches = new ArrayList<FutureTask<Loop>>();
+		for ( final String[] registers : loop_registers ) {
+			//the copies may split their own search for the number of iterations
+			final CodeBuilder builder = fork(true);
+			builders.add(builder);
+			FutureTask<Loop> search = new FutureTask<Loop>(new Callable<Loop>() {
+				public Loop call() {
+					return builder.buildLoop(min_time, max_time, elements_usable, instruction_limit, nested_loops_counter, registers);
+				}
+			});
+			searches.add(search);
+			execute(search);
+		}
+		return getFirstResult(builders, searches);
+	}
+	
+	/**
+	 * starts a search in the search_pool,
+	 * if the pool has been shut down since this generation started the search is left to be run by the thread waiting for it
+	 * @param search - the search
+	 */
+	private void execute ( FutureTask<?> search ) {
+		try {
+			search_pool.execute(search);
+		} catch (RejectedExecutionException e) {
+			//getResult will run it
+		}
+	}
+	
+	/**
+	 * waits for the searches started in the search_pool, in the order they are given, until one of them has a result,
+	 * the ones after it are no longer needed so they are stopped
+	 * @param builders - the CodeBuilder doing each search
+	 * @param searches - the searches, in order of priority
+	 * @return the result of the first search that has one, null if none of them does
+	 */
+	private static <T> T getFirstResult ( ArrayList<CodeBuilder> builders , ArrayList<FutureTask<T>> searches ) {
+		T res = null;
+		for ( int i = 0 ; i < searches.size() ; ++i ) {
+			if ( res == null ) {
+				res = getResult(searches.get(i));
+			}
+			else {
+				//we already have a better one
+				builders.get(i).stopped = true;
+				searches.get(i).cancel(false);
+			}
+		}
+		return res;
+	}
+	
+	/**
+	 * waits for a search started in the search_pool to finish,
+	 * if none of the threads has started it yet it is run by the calling thread instead,
+	 * that way a search that waits for the searches it has started never waits for a thread that is waiting itself
+	 * @param search - the search
+	 * @return the result of the search, null if the search failed or was stopped
+	 */
+	private static <T> T getResult ( FutureTask<T> search ) {
+		//does nothing if the search has already been started by some other thread
+		search.run();
+		try {
+			return search.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
 		}
 		return null;
 	}
+	
+	/**
+	 * @return true if the result of this search is no longer needed, either by this CodeBuilder or by the one it is a copy of,
+	 * 		   or if the time for it has run out
+	 */
+	private boolean isStopped() {
+		return stopped || (deadline != no_deadline && System.nanoTime()-deadline >= 0) || (parent != null && parent.isStopped());
+	}
+	
+	/**
+	 * makes a copy of this CodeBuilder, to be used for a generation or for a search that runs at the same time as the search of this one
+	 * the copy shares everything that doesn't change during a search, and reads the settings only once
+	 * @param with_search_pool - true if the copy may split it's own search using the search_pool, false if it always searches sequentially
+	 * @return a CodeBuilder with the same settings as this one
+	 */
+	private CodeBuilder fork ( boolean with_search_pool ) {
+		CodeBuilder res = new CodeBuilder();
+		res.instruction_set = instruction_set;
+		res.smallest_code = smallest_code;
+		res.loop_search_memo = loop_search_memo;
+		res.loop_bound_memo = loop_bound_memo;
+		res.parent = this;
+		if ( with_search_pool ) {
+			//setParallelism changes both of them together
+			synchronized ( this ) {
+				res.parallelism = parallelism;
+				res.search_pool = search_pool;
+			}
+		}
+		return res;
+	}
 		
+	/**
+	 * finds the largest number of iterations for which a loop body duration exists,
+	 * we need to check for round-off errors in duration, can we afford them
+	 * most of the numbers of iterations fail this check, so it is kept apart from the rest of the search
+	 * @param max_iterations - the largest number of iterations to be checked
+	 * @param min_iterations - the smallest number of iterations to be checked
+	 * @param min_time - the minimum duration of the loop
+	 * @param max_time - the maximum duration of the loop
+	 * @return the largest number of iterations N in [min_iterations,max_iterations] with ceil(min_time/N) <= floor(max_time/N), -1 if there is none
+	 */
+	private static int getFeasibleIterationCount ( int max_iterations , int min_iterations , long min_time , long max_time ) {
+		for ( int num_iterations = max_iterations ; num_iterations >= min_iterations ; --num_iterations ) {
+			long next_min_time = min_time/num_iterations+((min_time%num_iterations)==0?0:1);
+			long next_max_time = max_time/num_iterations;
+			if ( next_min_time <= next_max_time ) {
+				return num_iterations;
+			}
+		}
+		return -1;
+	}
+	
 	/**
 	 * a method used to create a loop
 	 * @param loop_type -  type of loop 8bit or 16bit
@@ -389,20 +890,17 @@ public class CodeBuilder {
 	 * @return - a loop with default init, decr and cond segments and other set
 	 */
 	private Loop makeLoop ( int loop_type , int init_value , String label , String reg_or_reg_pair , Executable other_instructions ) {
-		Loop result = new Loop();
-		result.iterations = init_value;
-		result.init_instructions = instruction_set.getInitInstrcution(loop_type, reg_or_reg_pair, init_value);
-		result.other_instructions = other_instructions;
-		result.dcr_instructions = instruction_set.getDcrInstrcution(loop_type, reg_or_reg_pair);
-		result.cond_instructions = instruction_set.getCondInstruction(loop_type, label);
-		result.label = label;
-		return result;
+		return new Loop(instruction_set.getInitInstrcution(loop_type, reg_or_reg_pair, init_value), other_instructions, 
+						instruction_set.getDcrInstrcution(loop_type, reg_or_reg_pair), instruction_set.getCondInstruction(loop_type, label), 
+						label, init_value);
 	}
 	
 	/**
 	 * this method is used to generate loops
-	 * it will try every possible number of iterations in the interval[min_iter,max_iter] 
+	 * it will look for the largest number of iterations in the interval[min_iter,max_iter] 
 	 * for this loop's logic in order to get it's execution time in the interval [min_time,max_time],
+	 * the iteration counts for which the loop body is a loop-less code segment are solved directly by the solveIterationCount method,
+	 * only the iteration counts that require nesting another loop are tried one by one
 	 * @param min_iterations 
 	 * @param max_iterations
 	 * @param min_time 
@@ -418,41 +916,168 @@ public class CodeBuilder {
 												  Element elements_usable[] , int instruction_limit , 
 												  int nested_loops_counter ,  String reg_or_reg_pair , int loop_type ) {
 		String label = "loop"+nested_loops_counter;
-		for ( int num_iterations = max_iterations  ; num_iterations >= min_iterations  ; --num_iterations ) {
-			//we need to check for round-off errors in duration, can we afford them
-			long next_min_time = min_time/num_iterations+((min_time%num_iterations)==0?0:1);
-			long next_max_time = max_time/num_iterations;
-			if ( next_min_time <= next_max_time ) {
-				//it just may work so go for it, first by subtracting the loop_logic_instructions_duration 
-				int loop_logic_instructions_duration = instruction_set.getLoopLogicInstructionsDuration(loop_type);
-				
-				next_min_time -= loop_logic_instructions_duration;
-				next_max_time -= loop_logic_instructions_duration;
-				if ( next_max_time < 0 ) {
-					//we can't do it
-					break;
-				}
-				
-				Executable exec = null;
-				
-				//we need loop nesting
-				if ( next_min_time > getMaximumPossibleCreatedDuration() ) {
-					exec = buildLoop(next_min_time,next_max_time,elements_usable,instruction_limit,nested_loops_counter+1);
-				}
-				else {
-					//just generate a bunch of instructions
-					exec = getInstructionsForDuration(next_min_time, next_max_time);
-				}
-				if ( exec != null ) {
-					//we got it
-					return makeLoop(loop_type, num_iterations, label, reg_or_reg_pair, exec);
-				}
+		int loop_logic_instructions_duration = instruction_set.getLoopLogicInstructionsDuration(loop_type);
+		
+		//first see if we can do it without nesting, the largest such number of iterations is computed directly
+		int num_iterations = solveIterationCount(min_iterations, max_iterations, min_time, max_time, loop_logic_instructions_duration);
+		if ( num_iterations != -1 ) {
+			long next_min_time = min_time/num_iterations+((min_time%num_iterations)==0?0:1)-loop_logic_instructions_duration;
+			long next_max_time = max_time/num_iterations-loop_logic_instructions_duration;
+			return makeLoop(loop_type, num_iterations, label, reg_or_reg_pair, getInstructionsForDuration(next_min_time, next_max_time));
+		}
+		
+		//every number of iterations larger than this one leaves a body short enough to be built without nesting,
+		//and we already know none of those work
+		long longest_body = getMaximumPossibleCreatedDuration()+loop_logic_instructions_duration;
+		if ( (min_time-1)/longest_body < max_iterations ) {
+			max_iterations = (int) ((min_time-1)/longest_body);
+		}
+		//the nested loop has to fit in the bounds for loops made of the elements that are left
+		long nested_loop_upper_bound = getLoopUpperBound(elements_usable, instruction_limit);
+		if ( nested_loop_upper_bound == -1 ) {
+			//no loop can be nested
+			return null;
+		}
+		long nested_loop_lower_bound = getLoopLowerBound(new Elements(elements_usable).getE(), instruction_limit);
+		long shortest_nested_body = saturatedAdd(nested_loop_lower_bound, loop_logic_instructions_duration);
+		if ( max_time/shortest_nested_body < max_iterations ) {
+			max_iterations = (int) (max_time/shortest_nested_body);
+		}
+		long longest_nested_body = saturatedAdd(nested_loop_upper_bound, loop_logic_instructions_duration);
+		if ( ceilDivide(min_time, longest_nested_body) > min_iterations ) {
+			min_iterations = (int) Math.min(ceilDivide(min_time, longest_nested_body), Integer.MAX_VALUE);
+		}
+		if ( search_pool != null && nested_loops_counter == 1 && max_iterations-min_iterations+1 >= 2*parallelism ) {
+			return buildNestedLoopInParallel(min_iterations, max_iterations, min_time, max_time, elements_usable, 
+											 instruction_limit, nested_loops_counter, reg_or_reg_pair, loop_type);
+		}
+		return buildNestedLoop(min_iterations, max_iterations, min_time, max_time, elements_usable, 
+							   instruction_limit, nested_loops_counter, reg_or_reg_pair, loop_type, null);
+	}
+	
+	/**
+	 * tries the numbers of iterations in the interval [min_iterations,max_iterations] one by one, from the largest to the smallest,
+	 * each one with a nested loop for it's body
+	 * the parameters are the same as in buildLoopByDeterminingInitValue
+	 * @param search_end - shared by all the parts of a search that is split by the buildNestedLoopInParallel method, null if the search is not split,
+	 * 		  holds the largest number of iterations at which the whole search is known to end, 
+	 * 		  a part of the search gives up once it gets below it, there is a better result in some other part
+	 * @return the loop with the largest number of iterations that works, null if there is none
+	 */
+	private Loop buildNestedLoop ( int min_iterations , int max_iterations , long min_time , long max_time , 
+								   Element elements_usable[] , int instruction_limit , 
+								   int nested_loops_counter ,  String reg_or_reg_pair , int loop_type , AtomicInteger search_end ) {
+		String label = "loop"+nested_loops_counter;
+		int loop_logic_instructions_duration = instruction_set.getLoopLogicInstructionsDuration(loop_type);
+		for ( int num_iterations = getFeasibleIterationCount(max_iterations, min_iterations, min_time, max_time) ; num_iterations != -1  ; 
+			  num_iterations = getFeasibleIterationCount(num_iterations-1, min_iterations, min_time, max_time) ) {
+			if ( search_end != null && num_iterations < search_end.get() ) {
+				//some other part of the search has found a better one
+				break;
+			}
+			//it just may work so go for it, first by subtracting the loop_logic_instructions_duration 
+			long next_min_time = min_time/num_iterations+((min_time%num_iterations)==0?0:1)-loop_logic_instructions_duration;
+			long next_max_time = max_time/num_iterations-loop_logic_instructions_duration;
+			if ( next_max_time < 0 ) {
+				//we can't do it
+				endSearch(search_end, num_iterations);
+				break;
+			}
+			
+			//we need loop nesting
+			Executable exec = buildLoop(next_min_time,next_max_time,elements_usable,instruction_limit,nested_loops_counter+1);
+			if ( exec != null ) {
+				//we got it
+				endSearch(search_end, num_iterations);
+				return makeLoop(loop_type, num_iterations, label, reg_or_reg_pair, exec);
+			}
+			if ( isStopped() ) {
+				//nobody needs the result any more
+				break;
 			}
 			//sorry guys, perhaps you can try with a different number of iteration
 		}
 		return null;
 	}
 	
+	/**
+	 * lets the other parts of a split search know that the search ends at the given number of iterations,
+	 * unless it is already known to end at a larger one
+	 * @param search_end - the number of iterations at which the search ends, null if the search is not split
+	 * @param num_iterations - the number of iterations at which the search has ended
+	 */
+	private static void endSearch ( AtomicInteger search_end , int num_iterations ) {
+		if ( search_end == null ) return;
+		int current = search_end.get();
+		while ( current < num_iterations && !search_end.compareAndSet(current, num_iterations) ) {
+			current = search_end.get();
+		}
+	}
+	
+	/**
+	 * does the same thing as the buildNestedLoop method, but splits the interval [min_iterations,max_iterations] into parts,
+	 * each one searched by a copy of this CodeBuilder run by the search_pool
+	 * the parts with larger numbers of iterations come first, the result is the one found in the first part that has one,
+	 * so it is the same as the one a single search would give
+	 * the parameters are the same as in buildLoopByDeterminingInitValue
+	 * @return the loop with the largest number of iterations that works, null if there is none
+	 */
+	private Loop buildNestedLoopInParallel ( final int min_iterations , final int max_iterations , final long min_time , final long max_time , 
+											final Element elements_usable[] , final int instruction_limit , 
+											final int nested_loops_counter ,  final String reg_or_reg_pair , final int loop_type ) {
+		final AtomicInteger search_end = new AtomicInteger(0);
+		//a few more parts than threads, so that a thread that is done early gets some more work
+		int parts = 4*parallelism;
+		int part_size = (max_iterations-min_iterations+1+parts-1)/parts;
+		ArrayList<CodeBuilder> builders = new ArrayList<CodeBuilder>();
+		ArrayList<FutureTask<Loop>> searches = new ArrayList<FutureTask<Loop>>();
+		for ( int part_max = max_iterations ; part_max >= min_iterations ; part_max -= part_size ) {
+			final int part_max_iterations = part_max;
+			final int part_min_iterations = Math.max(part_max-part_size+1, min_iterations);
+			final CodeBuilder builder = fork(false);
+			builders.add(builder);
+			FutureTask<Loop> search = new FutureTask<Loop>(new Callable<Loop>() {
+				public Loop call() {
+					return builder.buildNestedLoop(part_min_iterations, part_max_iterations, min_time, max_time, elements_usable, 
+												   instruction_limit, nested_loops_counter, reg_or_reg_pair, loop_type, search_end);
+				}
+			});
+			searches.add(search);
+			execute(search);
+		}
+		return getFirstResult(builders, searches);
+	}
+	
+	/**
+	 * finds the largest number of iterations for a loop whose body is a loop-less code segment,
+	 * instead of trying every number of iterations, for each duration we can build without loops we compute
+	 * the interval of iterations that keep the loop in [min_time,max_time] and take the largest one
+	 * for this function to work the precomputeAllPossibledurations to have been called before
+	 * @param min_iterations - the least number of iterations allowed
+	 * @param max_iterations - the most number of iterations allowed
+	 * @param min_time - lower bound for the duration of all the iterations together
+	 * @param max_time - upper bound for the duration of all the iterations together
+	 * @param loop_logic_instructions_duration - the duration of the loop logic that is part of every iteration
+	 * @return - the largest number of iterations, -1 if there is no such number
+	 */
+	private int solveIterationCount ( int min_iterations , int max_iterations , long min_time , long max_time , int loop_logic_instructions_duration ) {
+		int result = -1;
+		int longest = getMaximumPossibleCreatedDuration();
+		for ( int i = possible_durations.getNextPossible(0, duration_limit) ; i != -1 && i <= longest ; 
+				  i = possible_durations.getNextPossible(i+1, duration_limit) ) {
+			long single_iteration = i+loop_logic_instructions_duration;
+			//the iterations for which this body fits are [ceil(min_time/single_iteration),floor(max_time/single_iteration)]
+			long lowest = min_time/single_iteration+((min_time%single_iteration)>0?1:0);
+			long highest = max_time/single_iteration;
+			if ( lowest < min_iterations ) lowest = min_iterations;
+			if ( highest > max_iterations ) highest = max_iterations;
+			if ( lowest <= highest && highest > result ) {
+				result = (int) highest;
+			}
+		}
+		return result;
+	}
+	
 	/**
 	 * removes the specified register from the array of elements on our disposal, does not change the original array
 	 * @param elements_usable - current elements that we can use
@@ -480,7 +1105,9 @@ public class CodeBuilder {
 	/**
 	 * this function will take all the arguments, separate the instructions that we can use out of the whole instruction set of the mP
 	 * with respect to the elements_usable, and will then calculate all possible duration of instructions segments of maximum instructions
-	 * to instruction limit, and store that information in the possible_durations array 
+	 * to instruction limit, and store that information in the possible_durations table
+	 * the tables are remembered by the DurationTable class, so they are calculated only the first time they are needed,
+	 * the same table is used for every instruction limit, the limit is kept in duration_limit
 	 
 	 * @param elements_usable - descriptors for all the elements that are available to the function to operate with,
 	 * 		  such as registers and memory locations
@@ -491,11 +1118,23 @@ public class CodeBuilder {
 	 */
 	private void precomputeAllPossibleDurations(Element[] elements_usable,
 			int instruction_limit) {
-		instructions_available = instruction_set.getAllAvailableInstructions(elements_usable);
 		/*
 		 * decide which memory locations are to be used for instructions that require access to memory,
 		 * these locations will not hold any meaningful data
 		 */
+		Element memory_locations[] = getMemoryLocations(elements_usable);
+		possible_durations = DurationTable.getInstance(instruction_set, elements_usable, memory_locations[0], memory_locations[1], smallest_code);
+		duration_limit = instruction_limit;
+	}
+
+	/**
+	 * decide which memory locations are to be used for instructions that require access to memory,
+	 * these locations will not hold any meaningful data
+	 * @param elements_usable - descriptors for all the elements that are available to the function to operate with
+	 * @return - an array of two elements, the first one is the location for instructions that need a single memory location,
+	 * 		   the second one is the first of two consecutive locations for instructions that need two, both are null if there is no such location
+	 */
+	private Element[] getMemoryLocations ( Element[] elements_usable ) {
 		HashMap<Integer,Element> memory = new HashMap<Integer,Element>();
 		Element single = null;
 		Element pair = null;
@@ -515,91 +1154,247 @@ public class CodeBuilder {
 				}
 			}
 		}
-
-		 /*
-		 * the maximum possible duration of code segments we see if we can create,
-		 * depends on 2 factors, the maximum number of instructions and the maximum duration of a single instruction
-		 * maximum number of instructions < 50 
-		 * && maximum duration of a single instruction (for 8085) is 16
-		 * =>  maximum possible duration =~ 800
-		 * still we allow for some added duration, just in case
-		 * we should compute this for every call of the precomputing separate so we don't do any excess computing
-		 */
-		int max_possible_duration = instruction_limit*getMaximumInstructionDuration()+1;
-		//all are null in start
-		ArrayList<InstructionData>[] possible_durations_descr = new ArrayList[max_possible_duration];
-		// no instructions are needed for duration of 0
-		possible_durations_descr[0] = new ArrayList<InstructionData>();
-		//logic for generating, we must use at max 'instruction_limit' instructions
-		//reference on algorithm used, here -> http://www.seeingwithc.org/topic1html.html
-		
-		for ( int k = 0 ; k < instruction_limit ; ++k ) {
-			for ( int i = max_possible_duration-1 ; i >= 0 ; --i ) {
-				if ( possible_durations_descr[i] != null ) {
-					for ( int w = 0 ; w  < instructions_available.size() ; ++w ) {
-						if ( i+instructions_available.get(w).getDuration() < max_possible_duration &&
-							 possible_durations_descr[i+instructions_available.get(w).getDuration()] == null ) {
-								possible_durations_descr[i+instructions_available.get(w).getDuration()] = new ArrayList<InstructionData>(possible_durations_descr[i].size()+1);
-								for ( InstructionData is : possible_durations_descr[i] ) {
-									possible_durations_descr[i+instructions_available.get(w).getDuration()].add(is);
-								}
-								possible_durations_descr[i+instructions_available.get(w).getDuration()].add(instructions_available.get(w));
-						}
-					}
-				}
+		return new Element[] { single , pair };
+	}
+	
+	/**
+	 * makes a delay by nesting loops, computed directly instead of searching for it, used for very long delays
+	 * every register pair and after them every register left is used as a loop counter, as many of them as needed,
+	 * the duration is then written as a mixed-radix number with the numbers of iterations of the loops as digits:
+	 *  
+	 *  padding_0
+	 *  LXI/MVI counter_1,N1
+	 *  loop1: padding_1
+	 *         LXI/MVI counter_2,N2
+	 *         loop2: ...
+	 *                DCX,MOV,ORA/DCR counter_2
+	 *                JNZ loop2
+	 *         DCX,MOV,ORA/DCR counter_1
+	 *         JNZ loop1
+	 *  
+	 *  where each padding is a loop-less code segment that takes care of the remainder left by the loop around it
+	 *  (or of the remainder of the whole delay for padding_0), at most long_delay_padding_limit instructions long,
+	 *  made of the elements not used as counters by that loop or the loops around it
+	 * @param min_time - lower bound for the duration of the delay
+	 * @param max_time - upper bound for the duration of the delay
+	 * @param elements_usable - descriptors for all the elements that are available to the delay
+	 * @return code with a duration in the interval [min_time,max_time], null if the registers available are not enough for it
+	 */
+	private Executable buildLongDelay ( long min_time , long max_time , Element elements_usable[] ) {
+		//choose the counters, register pairs first, they have the most iterations,
+		//A can still be the counter of a loop inside them, the loop logic of a register pair loads A only after the body
+		ArrayList<String[]> counters = new ArrayList<String[]>();
+		int elements = new Elements(elements_usable).getE();
+		int used = 0;
+		for ( int i = 0 ; i < loop_register_pairs.length ; ++i ) {
+			if ( isPairUsable(loop_register_pairs[i], elements) ) {
+				counters.add(loop_register_pair_names[i]);
+				used |= loop_register_pairs[i];
 			}
 		}
-		
-		/**
-		 * un-comment this if you want to see all do-able duration, debugging only
-		 */
-		/**
-		for ( int i = 0 ; i < 100 ; ++i ) {
-			System.out.print("Of duration "+i+" :");
-			if ( possible_durations[i] == null ) {
-				System.out.println(" NOT POSSIBLE");
+		for ( int i = 0 ; i < loop_registers.length ; ++i ) {
+			if ( (loop_registers[i]&elements&~used) != 0 ) {
+				counters.add(new String[] { loop_register_names[i] });
 			}
-			else {
-				System.out.println(possible_durations[i]);
+		}
+		//padding[j] is made of the elements left for the code in front of the j-th loop
+		DurationTable padding[] = new DurationTable[counters.size()+1];
+		Element memory_locations[] = getMemoryLocations(elements_usable);
+		Element padding_elements[] = elements_usable;
+		for ( int j = 0 ; j <= counters.size() ; ++j ) {
+			padding[j] = DurationTable.getInstance(instruction_set, padding_elements, memory_locations[0], memory_locations[1], smallest_code);
+			if ( j < counters.size() ) {
+				padding_elements = removeUsedRegisters(padding_elements, counters.get(j));
 			}
 		}
-		*/
-		
-		//now transform this code-segments from InstructionMetadata (descriptions)
-		//to real executables, that can be used directly for creating delay functions
-		possible_durations = new Executable[max_possible_duration];
-		possible_durations[0] = new InstructionGroup();
-		for (int i = 1 ; i < possible_durations.length; i++) {
-			if ( possible_durations_descr[i] != null ) {
-				possible_durations[i] = new InstructionGroup(possible_durations_descr[i],single,pair);
+		//use as few loops as possible, and then paddings as short as possible
+		for ( int depth = 1 ; depth <= counters.size() ; ++depth ) {
+			if ( getLongDelayUpperBound(counters, padding, long_delay_padding_limit, 0, depth) < min_time ) continue;
+			//no padding at all would need a number of iterations that divides the duration, that is hardly ever the case, so start with one instruction
+			for ( int padding_limit = 1 ; padding_limit <= long_delay_padding_limit ; ++padding_limit ) {
+				Executable res = buildLongDelay(min_time, max_time, counters, padding, padding_limit, 0, depth);
+				if ( res != null ) return res;
+				if ( isStopped() ) return null;
 			}
 		}
+		return null;
+	}
+	
+	/**
+	 * makes the j-th loop of the long delay, together with the padding in front of it
+	 * @param min_time - lower bound for the duration of the padding and the loop
+	 * @param max_time - upper bound for the duration of the padding and the loop
+	 * @param counters - the registers used as loop counters, from the outer loop to the inner one
+	 * @param padding - the loop-less code segments available in front of each loop, and in the body of the innermost loop
+	 * @param padding_limit - the maximum number of instructions in each padding
+	 * @param j - which loop is being made
+	 * @param depth - the number of nested loops
+	 * @return the padding followed by the loop, null if it can't be made
+	 */
+	private Executable buildLongDelay ( long min_time , long max_time , ArrayList<String[]> counters , DurationTable padding[] , 
+										int padding_limit , int j , int depth ) {
+		int loop_type = counters.get(j).length == 2?InstructionSet.loop_type_16b:InstructionSet.loop_type_8b;
+		int max_loop_iterations = counters.get(j).length == 2?(1<<16)-1:(1<<8)-1;
+		int loop_logic_instructions_duration = instruction_set.getLoopLogicInstructionsDuration(loop_type);
+		min_time -= instruction_set.getInitInstructionsDuration(loop_type);
+		max_time -= instruction_set.getInitInstructionsDuration(loop_type);
+		if ( max_time < 0 ) return null;
+		long longest_padding = padding[j].getMaximumDuration(padding_limit);
+		//the body is the padding for the next loop and the next loop, or just a padding in the innermost loop
+		long shortest_body = j+1 < depth?getLongDelayLowerBound(counters, j+1, depth):0;
+		long longest_body = padding[j+1].getMaximumDuration(padding_limit);
+		if ( j+1 < depth ) longest_body = saturatedAdd(longest_body, getLongDelayUpperBound(counters, padding, padding_limit, j+1, depth));
+		long longest_iteration = saturatedAdd(longest_body, loop_logic_instructions_duration);
+		long shortest_iteration = shortest_body+loop_logic_instructions_duration;
 		
+		//the fewer iterations the smaller the remainder left for the padding, so start from the fewest that can be enough
+		long min_iterations = Math.max(2, ceilDivide(Math.max(0, min_time-longest_padding), longest_iteration));
+		long max_iterations = Math.min(max_loop_iterations, max_time/shortest_iteration);
+		for ( long num_iterations = min_iterations ; num_iterations <= max_iterations && !isStopped() ; ++num_iterations ) {
+			//the duration of a single iteration, the rest is for the padding
+			for ( long iteration = Math.min(max_time/num_iterations, longest_iteration) ; 
+				  iteration >= shortest_iteration && min_time-num_iterations*iteration <= longest_padding ; --iteration ) {
+				int padding_duration = padding[j].getNextPossible(min_time-num_iterations*iteration, padding_limit);
+				if ( padding_duration == -1 || padding_duration > max_time-num_iterations*iteration ) continue;
+				Executable body = null;
+				if ( j+1 < depth ) {
+					//whatever the padding leaves of the allowed error can be used by the next loop
+					long next_min_time = ceilDivide(min_time-padding_duration, num_iterations);
+					long next_max_time = (max_time-padding_duration)/num_iterations;
+					body = buildLongDelay(Math.max(next_min_time, iteration)-loop_logic_instructions_duration, 
+										  next_max_time-loop_logic_instructions_duration, counters, padding, padding_limit, j+1, depth);
+				}
+				else if ( padding[j+1].isPossible((int) (iteration-loop_logic_instructions_duration), padding_limit) ) {
+					body = padding[j+1].getExecutable((int) (iteration-loop_logic_instructions_duration));
+				}
+				if ( body != null ) {
+					Loop loop = makeLoop(loop_type, (int) num_iterations, "loop"+(j+1), counters.get(j)[0], body);
+					return new InstructionGroup(padding[j].getExecutable(padding_duration), loop);
+				}
+			}
+		}
+		return null;
 	}
-
+	
+	/**
+	 * @return the duration of the j-th loop of a long delay with the maximum number of iterations and the longest paddings, 
+	 * 		   with the padding in front of it, Long.MAX_VALUE if it is too large to be written
+	 */
+	private long getLongDelayUpperBound ( ArrayList<String[]> counters , DurationTable padding[] , int padding_limit , int j , int depth ) {
+		int loop_type = counters.get(j).length == 2?InstructionSet.loop_type_16b:InstructionSet.loop_type_8b;
+		int max_loop_iterations = counters.get(j).length == 2?(1<<16)-1:(1<<8)-1;
+		long longest_body = padding[j+1].getMaximumDuration(padding_limit);
+		if ( j+1 < depth ) longest_body = saturatedAdd(longest_body, getLongDelayUpperBound(counters, padding, padding_limit, j+1, depth));
+		long longest_iteration = saturatedAdd(longest_body, instruction_set.getLoopLogicInstructionsDuration(loop_type));
+		long longest_loop = saturatedMultiply(longest_iteration, max_loop_iterations);
+		longest_loop = saturatedAdd(longest_loop, instruction_set.getInitInstructionsDuration(loop_type));
+		return saturatedAdd(longest_loop, padding[j].getMaximumDuration(padding_limit));
+	}
+	
+	/**
+	 * @return the duration of the j-th loop of a long delay with 2 iterations and no paddings
+	 */
+	private long getLongDelayLowerBound ( ArrayList<String[]> counters , int j , int depth ) {
+		int loop_type = counters.get(j).length == 2?InstructionSet.loop_type_16b:InstructionSet.loop_type_8b;
+		long shortest_body = j+1 < depth?getLongDelayLowerBound(counters, j+1, depth):0;
+		return instruction_set.getInitInstructionsDuration(loop_type)+2*(shortest_body+instruction_set.getLoopLogicInstructionsDuration(loop_type));
+	}
+	
 	/**
-	 * returns the longest possible duration with the current available instructions
-	 * @return - duration in T-states of the mP of the longest available instruction
+	 * the shortest loop that can be built, an 8 bit or a 16 bit loop structure with 2 iterations and nothing in it's body,
+	 * no loop made of the given elements can have a shorter duration
+	 * @param elements - the elements available for the loop, encoded as in the Elements class
+	 * @param instruction_limit - the maximum number of instructions for the loop
+	 * @return duration in T-states of the mP, Long.MAX_VALUE if no loop can be built
 	 */
-	private int getMaximumInstructionDuration() {
-		int res = 4;
-		if ( instructions_available == null ) return res;
-		for ( InstructionData i : instructions_available ) {
-			if ( i.getDuration() > res ) res = i.getDuration();
+	private long getLoopLowerBound ( int elements , int instruction_limit ) {
+		long result = Long.MAX_VALUE;
+		if ( instruction_limit < instruction_set.getLoopLogicInstructionsLength(InstructionSet.loop_type_8b) ) return result;
+		for ( int pair : loop_register_pairs ) {
+			if ( isPairUsable(pair, elements) && instruction_limit >= instruction_set.getLoopLogicInstructionsLength(InstructionSet.loop_type_16b) ) {
+				result = Math.min(result, instruction_set.getInitInstructionsDuration(InstructionSet.loop_type_16b)+
+										  2*instruction_set.getLoopLogicInstructionsDuration(InstructionSet.loop_type_16b));
+				break;
+			}
 		}
-		return res;
+		if ( (elements&loop_registers_mask) != 0 ) {
+			result = Math.min(result, instruction_set.getInitInstructionsDuration(InstructionSet.loop_type_8b)+
+									  2*instruction_set.getLoopLogicInstructionsDuration(InstructionSet.loop_type_8b));
+		}
+		return result;
+	}
+	
+	/**
+	 * no loop made of the given elements can have a longer duration than this one,
+	 * for every register and register pair that can be used for the loop logic it is the duration with the maximum number of iterations
+	 * and the longest body, the body being either a loop-less code segment or a nested loop, which has a bound of it's own
+	 * the bounds are remembered in the loop_bound_memo
+	 * @param elements_usable - the elements available for the loop
+	 * @param instruction_limit - the maximum number of instructions for the loop
+	 * @return duration in T-states of the mP, Long.MAX_VALUE if it is too large to be written, -1 if no loop can be built
+	 */
+	private long getLoopUpperBound ( Element elements_usable[] , int instruction_limit ) {
+		if ( instruction_limit < 3 ) return -1;
+		Element memory_locations[] = getMemoryLocations(elements_usable);
+		String key = instruction_set.mP+";"+new Elements(elements_usable).getE()+";"+
+					 (memory_locations[0] != null?memory_locations[0].description:null)+";"+
+					 (memory_locations[1] != null?memory_locations[1].description:null)+";"+instruction_limit;
+		synchronized ( loop_bound_memo ) {
+			Long res = loop_bound_memo.get(key);
+			if ( res != null ) return res;
+		}
+		long result = -1;
+		for ( String registers[] : getLoopRegisters(new Elements(elements_usable), true) ) {
+			int loop_type = registers.length == 2?InstructionSet.loop_type_16b:InstructionSet.loop_type_8b;
+			int max_loop_iterations = registers.length == 2?(1<<16)-1:(1<<8)-1;
+			int body_limit = instruction_limit-instruction_set.getLoopLogicInstructionsLength(loop_type);
+			if ( body_limit < 0 ) continue;
+			Element next_elements_usable[] = removeUsedRegisters(elements_usable, registers);
+			Element next_memory_locations[] = getMemoryLocations(next_elements_usable);
+			long longest_body = DurationTable.getInstance(instruction_set, next_elements_usable, next_memory_locations[0], next_memory_locations[1], smallest_code)
+											 .getMaximumDuration(body_limit);
+			longest_body = Math.max(longest_body, getLoopUpperBound(next_elements_usable, body_limit));
+			longest_body = saturatedAdd(longest_body, instruction_set.getLoopLogicInstructionsDuration(loop_type));
+			long longest_loop = saturatedMultiply(longest_body, max_loop_iterations);
+			result = Math.max(result, saturatedAdd(longest_loop, instruction_set.getInitInstructionsDuration(loop_type)));
+		}
+		synchronized ( loop_bound_memo ) {
+			loop_bound_memo.put(key, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * @return a+b, or Long.MAX_VALUE if that is too large to be written, both a and b should not be negative
+	 */
+	private static long saturatedAdd ( long a , long b ) {
+		return a > Long.MAX_VALUE-b?Long.MAX_VALUE:a+b;
+	}
+	
+	/**
+	 * @return a*b, or Long.MAX_VALUE if that is too large to be written, both a and b should not be negative
+	 */
+	private static long saturatedMultiply ( long a , long b ) {
+		return b != 0 && a > Long.MAX_VALUE/b?Long.MAX_VALUE:a*b;
+	}
+	
+	/**
+	 * @return a/b rounded up, without the a+b-1 that can overflow, a should not be negative and b should be positive
+	 */
+	private static long ceilDivide ( long a , long b ) {
+		return a/b+(a%b > 0?1:0);
 	}
 	
 	/**
 	 * used to roughly estimate the number of loops we need to get a duration
 	 * @param elements - elements available for making loops, only the registers are of interest
-	 * @return int - the maximum such number - 0 if we can make no loops, known to cause overflow
+	 * @return int - the maximum such number - 0 if we can make no loops, Long.MAX_VALUE if it is too large to be written
 	 */
 	private long getMaximumNumberofIterationsWhenNestingLoops ( Elements elements ) {
 		long result = 1;
 		for ( int i = 0 ; i < 7/*we have 7 registers in 8085*/ ; ++i ) {
 			if ( (1<<i&elements.getE()) > 0 ) {
-				result *= 256;
+				result = saturatedMultiply(result, 256);
 			}
 		}
 		return result;
@@ -611,7 +1406,7 @@ public class CodeBuilder {
 	 * @return duration in T-states of the mP, the longest we can get by nesting all loops available,0 if no loops
 	 */
 	private long getMaximumDurationWhenNestingLoops(Elements elements) {
-		return instruction_set.getLoopLogicInstructionsDuration(instruction_set.loop_type_8b)*getMaximumNumberofIterationsWhenNestingLoops(elements);
+		return saturatedMultiply(instruction_set.getLoopLogicInstructionsDuration(instruction_set.loop_type_8b), getMaximumNumberofIterationsWhenNestingLoops(elements));
 	}
 	
 	/**
@@ -620,10 +1415,7 @@ public class CodeBuilder {
 	 * by the method for precomputing the duration , 0 default
 	 */
 	private int getMaximumPossibleCreatedDuration() {
-		for ( int i = possible_durations.length-1 ; i >= 0 ; --i ) {
-			if ( possible_durations[i] != null )  return i;
-		}
-		return 0;
+		return possible_durations.getMaximumDuration(duration_limit);
 	}
 	
 }
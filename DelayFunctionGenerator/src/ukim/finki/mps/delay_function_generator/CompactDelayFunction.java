@@ -0,0 +1,275 @@
+package ukim.finki.mps.delay_function_generator;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * a delay function kept in a few int arrays instead of a tree of executables,
+ * used for keeping many delay functions at once, it takes a small part of the memory the tree takes
+ * 
+ * the instructions are kept in the order they are written by the AssemblyWriter:
+ * 
+ * instructions[i] - the id of the i-th instruction in the instruction set, see InstructionSet.getId
+ * operands[i] - the immediate data of the i-th instruction, 0 if it has none,
+ * 				 a negative value -k-1 is the label of the k-th loop, the labels themselves are not kept,
+ * 				 the k-th loop is labeled "loop"+(k+1) when the delay function is made back
+ * parts - the end of the init, main, finalize and return instructions, they are one after the other
+ * 
+ * and every loop is kept as a row of loop_row ints in the loops array, sorted by where the loop starts, so an outer loop comes before its inner loops:
+ * 
+ * start | where the init instructions start
+ * body  | where the other instructions start, this is where the label is
+ * dcr   | where the dcr instructions start
+ * cond  | where the cond instructions start
+ * end   | where the loop ends
+ * iterations
+ * 
+ * two compact delay functions are equal if they have the same code up to the names of the labels, so they can be used for finding the same functions
+ * @author Andrej Gajduk
+ *
+ */
+public class CompactDelayFunction {
+
+	private static final int loop_row = 6;
+
+	/**
+	 * the mP of the instruction set the ids are from
+	 */
+	private final String mP;
+
+	private final int[] instructions;
+
+	private final int[] operands;
+
+	private final int[] parts;
+
+	private final int[] loops;
+
+	private CompactDelayFunction ( String mP , int[] instructions , int[] operands , int[] parts , int[] loops ) {
+		this.mP = mP;
+		this.instructions = instructions;
+		this.operands = operands;
+		this.parts = parts;
+		this.loops = loops;
+	}
+
+	/**
+	 * @param delay_function - the delay function made by the CodeBuilder
+	 * @param mP - the mP the delay function was made for
+	 * @return the compact form of the delay function, null if it has an instruction that is not in the instruction set,
+	 * 		   or immediate data that is neither a number nor the label of a loop around it
+	 */
+	public static CompactDelayFunction compact ( DelayFunction delay_function , String mP ) {
+		Builder builder = new Builder(InstructionSet.getInstance(mP));
+		int parts[] = new int[4];
+		Executable executables[] = { delay_function.init_instructions , delay_function.main_instructions , 
+									 delay_function.finalize_instrucions , delay_function.return_instruction };
+		for ( int i = 0 ; i < executables.length ; ++i ) {
+			if ( !builder.add(executables[i]) ) return null;
+			parts[i] = builder.instructions.length;
+		}
+		return new CompactDelayFunction(mP, builder.instructions.toArray(), builder.operands.toArray(), parts, builder.loops.toArray());
+	}
+
+	/**
+	 * makes the tree of executables back, it has the same time, length and size as the delay function this was made from,
+	 * and the same code if the loops of that one were labeled the way the CodeBuilder labels them, from the outermost one
+	 * @return the delay function
+	 */
+	public DelayFunction toDelayFunction() {
+		InstructionSet instruction_set = InstructionSet.getInstance(mP);
+		int next_loop[] = { 0 };
+		Executable executables[] = new Executable[4];
+		for ( int i = 0 ; i < executables.length ; ++i ) {
+			executables[i] = expand(instruction_set, i > 0?parts[i-1]:0, parts[i], next_loop);
+		}
+		return new DelayFunction(executables[0], executables[1], executables[2], executables[3]);
+	}
+
+	/**
+	 * @param next_loop - the index of the first loop that starts in or after from, changed to the first loop after to
+	 * @return the instructions in [from,to) and the loops in them, null if there are none
+	 */
+	private Executable expand ( InstructionSet instruction_set , int from , int to , int next_loop[] ) {
+		ArrayList<Executable> res = new ArrayList<Executable>();
+		int i = from;
+		while ( i < to ) {
+			int row = next_loop[0]*loop_row;
+			if ( row < loops.length && loops[row] == i ) {
+				++next_loop[0];
+				Executable init_instructions = expand(instruction_set, loops[row], loops[row+1], next_loop);
+				Executable other_instructions = expand(instruction_set, loops[row+1], loops[row+2], next_loop);
+				Executable dcr_instructions = expand(instruction_set, loops[row+2], loops[row+3], next_loop);
+				Executable cond_instructions = expand(instruction_set, loops[row+3], loops[row+4], next_loop);
+				res.add(new Loop(init_instructions, other_instructions, dcr_instructions, cond_instructions, 
+								 getLabel(row/loop_row), loops[row+5]));
+				i = loops[row+4];
+			}
+			else {
+				res.add(getInstruction(instruction_set, i++));
+			}
+		}
+		if ( res.isEmpty() ) return null;
+		if ( res.size() == 1 ) return res.get(0);
+		return new InstructionGroup(res);
+	}
+
+	/**
+	 * @return the i-th instruction, with its immediate data set
+	 */
+	private Executable getInstruction ( InstructionSet instruction_set , int i ) {
+		InstructionData instruction = instruction_set.getInstruction(instructions[i]);
+		if ( instruction.getDataType() == null ) return instruction.getExecutable();
+		String value = operands[i] < 0?getLabel(-operands[i]-1):Integer.toString(operands[i]);
+		return instruction.getExecutable(instruction.getDataType(), value);
+	}
+
+	/**
+	 * @param k - the index of a loop
+	 * @return the label of the k-th loop
+	 */
+	private static String getLabel ( int k ) {
+		return "loop"+(k+1);
+	}
+
+	/**
+	 * @return the number of instructions
+	 */
+	public int length() {
+		return instructions.length;
+	}
+
+	/**
+	 * @return the mP of the instruction set the delay function was made for
+	 */
+	public String getMP() {
+		return mP;
+	}
+
+	@Override
+	public int hashCode() {
+		int res = mP.hashCode();
+		res = 31*res+Arrays.hashCode(instructions);
+		res = 31*res+Arrays.hashCode(operands);
+		res = 31*res+Arrays.hashCode(parts);
+		res = 31*res+Arrays.hashCode(loops);
+		return res;
+	}
+
+	@Override
+	public boolean equals ( Object obj ) {
+		if ( this == obj ) return true;
+		if ( !(obj instanceof CompactDelayFunction) ) return false;
+		CompactDelayFunction other = (CompactDelayFunction) obj;
+		return mP.equals(other.mP) && Arrays.equals(instructions, other.instructions) && Arrays.equals(operands, other.operands) &&
+			   Arrays.equals(parts, other.parts) && Arrays.equals(loops, other.loops);
+	}
+
+	/**
+	 * goes through a tree of executables and fills the arrays of a compact delay function
+	 */
+	private static class Builder {
+
+		private final InstructionSet instruction_set;
+
+		private final IntList instructions = new IntList();
+
+		private final IntList operands = new IntList();
+
+		private final IntList loops = new IntList();
+
+		/**
+		 * the labels of the loops added so far, in the same order as the loops, used only for finding the loop an operand refers to
+		 */
+		private final ArrayList<String> labels = new ArrayList<String>();
+
+		Builder ( InstructionSet instruction_set ) {
+			this.instruction_set = instruction_set;
+		}
+
+		/**
+		 * @return false if the executable can't be kept in the compact form
+		 */
+		boolean add ( Executable exec ) {
+			if ( exec == null ) return true;
+			if ( exec instanceof Instruction ) {
+				return add((Instruction) exec);
+			}
+			if ( exec instanceof InstructionSequence ) {
+				InstructionSequence sequence = (InstructionSequence) exec;
+				return sequence.getPrevious() == null || ( add(sequence.getPrevious()) && add(sequence.getLast()) );
+			}
+			if ( exec instanceof InstructionGroup ) {
+				for ( Executable e : ((InstructionGroup) exec).getInstructions() ) {
+					if ( !add(e) ) return false;
+				}
+				return true;
+			}
+			if ( exec instanceof Loop ) {
+				Loop loop = (Loop) exec;
+				//the row is taken before the inner loops are added, so the loops stay sorted by where they start
+				int row = loops.length;
+				for ( int i = 0 ; i < loop_row ; ++i ) loops.add(0);
+				labels.add(loop.label);
+				loops.set(row, instructions.length);
+				if ( !add(loop.init_instructions) ) return false;
+				loops.set(row+1, instructions.length);
+				if ( !add(loop.other_instructions) ) return false;
+				loops.set(row+2, instructions.length);
+				if ( !add(loop.dcr_instructions) ) return false;
+				loops.set(row+3, instructions.length);
+				if ( !add(loop.cond_instructions) ) return false;
+				loops.set(row+4, instructions.length);
+				loops.set(row+5, loop.iterations);
+				return true;
+			}
+			return false;
+		}
+
+		private boolean add ( Instruction instruction ) {
+			if ( instruction.getInstructionData() == null ) return false;
+			int id = instruction_set.getId(instruction.getInstructionData());
+			if ( id == -1 ) return false;
+			int operand = 0;
+			String value = instruction.getOperand();
+			if ( value != null ) {
+				try {
+					operand = Integer.parseInt(value);
+					if ( operand < 0 ) return false;
+				} catch (NumberFormatException e) {
+					int label = labels.lastIndexOf(value);
+					if ( label == -1 ) return false;
+					operand = -label-1;
+				}
+			}
+			instructions.add(id);
+			operands.add(operand);
+			return true;
+		}
+
+	}
+
+	/**
+	 * a list of ints that grows as needed, without boxing them
+	 */
+	private static class IntList {
+
+		private int[] values = new int[16];
+
+		private int length = 0;
+
+		void add ( int value ) {
+			if ( length == values.length ) values = Arrays.copyOf(values, 2*length);
+			values[length++] = value;
+		}
+
+		void set ( int index , int value ) {
+			values[index] = value;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, length);
+		}
+
+	}
+
+}
@@ -1,4 +1,5 @@
 package ukim.finki.mps.delay_function_generator;
+import java.io.IOException;
 
 /** represents a whole assembler function in the following format
  * 
@@ -14,23 +15,57 @@ public class DelayFunction extends Executable {
 	 * instructions used to do some initializing such as storing some values of elements on stack so they
 	 *  may be recovered at later times, while the instructions get to utilize those required elements
 	 */
-	Executable init_instructions;
+	final Executable init_instructions;
 	
 	/**
 	 * the main body of the delay functions, these instructions are the main contributors to the time of execution of the function
 	 */
-	Executable main_instructions;
+	final Executable main_instructions;
 	
 	/**
 	 * instructions used to wrap up the processing in the delay function, usually by restoring the state
 	 *  of the system elements as they were before invoking the delay functions
 	 */
-	Executable finalize_instrucions;
+	final Executable finalize_instrucions;
 	
 	/**
 	 * RET instruction or its equivalent, for returning to the main program routine
 	 */
-	Executable return_instruction;
+	final Executable return_instruction;
+	
+	/**
+	 * the time, length and size of the function, computed once in the constructor
+	 */
+	private final long time;
+	
+	private final int length;
+	
+	private final int size;
+	
+	/**
+	 * a full all-fields constructor, the function is never changed once made
+	 * @param init_instructions - stores the values of the elements the function needs, null if there are none
+	 * @param main_instructions - the main body of the function, null if none was found
+	 * @param finalize_instrucions - restores the values stored by the init_instructions, null if there are none
+	 * @param return_instruction - RET or its equivalent, null if the function doesn't return
+	 */
+	public DelayFunction ( Executable init_instructions , Executable main_instructions , Executable finalize_instrucions , Executable return_instruction ) {
+		this.init_instructions = init_instructions;
+		this.main_instructions = main_instructions;
+		this.finalize_instrucions = finalize_instrucions;
+		this.return_instruction = return_instruction;
+		long total_time = 0;
+		int total_length = 0 , total_size = 0;
+		for ( Executable e : new Executable[] { init_instructions , main_instructions , finalize_instrucions , return_instruction } ) {
+			if ( e == null ) continue;
+			total_time += e.time();
+			total_length += e.length();
+			total_size += e.size();
+		}
+		time = total_time;
+		length = total_length;
+		size = total_size;
+	}
 	
 	/**
 	 * how long will this function take to fully execute
@@ -39,12 +74,7 @@ public class DelayFunction extends Executable {
 	 */
 	@Override
 	public long time() {
-		long result = 0;
-		result += init_instructions != null?init_instructions.time():0;
-		result += main_instructions != null?main_instructions.time():0;
-		result += finalize_instrucions != null?finalize_instrucions.time():0;
-		result += return_instruction != null?return_instruction.time():0;
-		return result;
+		return time;
 	}
 
 	/**
@@ -53,22 +83,23 @@ public class DelayFunction extends Executable {
 	 */
 	@Override
 	public int length() {
-		int result = 0;
-		result += init_instructions != null?init_instructions.length():0;
-		result += main_instructions != null?main_instructions.length():0;
-		result += finalize_instrucions != null?finalize_instrucions.length():0;
-		result += return_instruction != null?return_instruction.length():0;
-		return result;
+		return length;
+	}
+
+	/**
+	 * @return size in bytes, the sum of the sizes of all 4 executables
+	 */
+	@Override
+	public int size() {
+		return size;
 	}
 	
 	@Override
-	public String toString() {
-		String result = "";
-		result += init_instructions != null?init_instructions.toString()+"\n":"";
-		result += main_instructions != null?main_instructions.toString()+"\n":"";
-		result += finalize_instrucions != null?finalize_instrucions.toString()+"\n":"";
-		result += return_instruction != null?return_instruction.toString()+"\n":"";
-		return result.replaceAll("\n\n", "\n").replaceAll(":\n", ":");
+	public void write(AssemblyWriter out) throws IOException {
+		out.write(init_instructions);
+		out.write(main_instructions);
+		out.write(finalize_instrucions);
+		out.write(return_instruction);
 	}
 
 }
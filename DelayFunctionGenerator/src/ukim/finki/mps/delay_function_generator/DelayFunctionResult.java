@@ -0,0 +1,49 @@
+package ukim.finki.mps.delay_function_generator;
+
+/**
+ * what the CodeBuilder gives back when it has only a limited time for building a delay function,
+ * the delay function it has found and whether it is the one that was asked for
+ * @author Andrej Gajduk
+ *
+ */
+public class DelayFunctionResult {
+
+	/**
+	 * the delay function, null if none was found in time
+	 */
+	private final DelayFunction delay_function;
+
+	/**
+	 * true if the duration of the delay_function is in the interval that was asked for,
+	 * false if it is only the closest one found in time
+	 */
+	private final boolean exact;
+
+	/**
+	 * a full-field constructor
+	 */
+	public DelayFunctionResult(DelayFunction delay_function, boolean exact) {
+		this.delay_function = delay_function;
+		this.exact = exact;
+	}
+
+	/**
+	 * @return the delay_function, null if none was found in time
+	 */
+	public DelayFunction getDelayFunction() {
+		return delay_function;
+	}
+
+	/**
+	 * @return the exact
+	 */
+	public boolean isExact() {
+		return exact;
+	}
+
+	@Override
+	public String toString() {
+		return (exact?"exact":"best effort")+"\n"+delay_function;
+	}
+
+}
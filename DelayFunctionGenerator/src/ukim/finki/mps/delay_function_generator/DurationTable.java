@@ -0,0 +1,377 @@
+package ukim.finki.mps.delay_function_generator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * contains the instruction codes for all possible build-able durations of loop-less code,
+ * made only of the instructions that can be used with some elements of the mP
+ * for every duration the table knows the least number of instructions needed, so the same table
+ * answers the questions for every instruction limit up to max_instruction_limit
+ * a table made for the smallest code will, out of all the codes with the least number of instructions for a duration,
+ * keep the one with the least size in bytes
+ *
+ * once made a table is never changed, so the same table is shared by every search that needs it,
+ * the tables are made through the getInstance method that remembers the most recently used tables
+ * the table itself is kept in a few primitive arrays, the executables are made only for the durations that are asked for
+ * and are remembered as InstructionSequences, the code for a duration shares the code for its predecessor instead of copying it
+ * @author Andrej Gajduk
+ *
+ */
+public class DurationTable {
+
+	/**
+	 * the largest instruction limit the tables are made for, no delay function is tried with more instructions than this
+	 */
+	public static final int max_instruction_limit = 40;
+
+	/**
+	 * the maximum number of tables remembered by the getInstance method
+	 */
+	private static final int cache_size = 256;
+
+	/**
+	 * the most recently used tables, the key is made by the getKey method
+	 */
+	private static LruCache<String,DurationTable> cache = new LruCache<String,DurationTable>(cache_size);
+
+	/**
+	 * out of all the instructions in the instruction set only a subset are available concerning the elements of the mP our delay
+	 * function is allowed to use, this list contains only those instructions
+	 */
+	private List<InstructionData> instructions_available;
+
+	/**
+	 * the table itself, kept as back-pointers
+	 * predecessor[i] == -1 if the duration i can not be achieved by the available instructions with max_instruction_limit instructions
+	 * otherwise the code for duration i is the code for duration predecessor[i] followed by the instruction 
+	 * instructions_available[instruction_used[i]], the code for duration 0 is empty
+	 * the instructions are made only when the code for some duration is asked for by getExecutable
+	 */
+	private int[] predecessor;
+
+	/**
+	 * the index in instructions_available of the last instruction of the code for each duration, see predecessor
+	 */
+	private short[] instruction_used;
+
+	/**
+	 * the number of instructions in the code for each duration, 
+	 * it is the least number of instructions the duration can be made of, because the table is made one instruction at a time
+	 */
+	private short[] length;
+
+	/**
+	 * an index for finding possible durations without searching the table,
+	 * next_possible[instruction_limit][i] is the shortest possible duration that is not shorter than i and can be made 
+	 * with at most instruction_limit instructions, -1 if there is none
+	 * the durations in the table are less than a thousand so they fit in a short
+	 */
+	private short[][] next_possible;
+
+	/**
+	 * maximum_duration[instruction_limit] is the longest possible duration made with at most instruction_limit instructions
+	 */
+	private int[] maximum_duration;
+
+	/**
+	 * the code for each duration that was asked for by getExecutable, null for the others
+	 * the sequence for a duration is the sequence for its predecessor with one more instruction, see predecessor
+	 * two threads can make the same sequence at once, either one can be kept because the sequences are never changed
+	 */
+	private InstructionSequence[] sequences;
+
+	/**
+	 * the size in bytes of the code for each duration, only kept in tables made for the smallest code, null otherwise
+	 */
+	private int[] size;
+
+	/**
+	 * the memory location for instructions that need a single memory location, null if there is none
+	 */
+	private Element single;
+
+	/**
+	 * the first of two consecutive memory locations for instructions that need two, null if there are none
+	 */
+	private Element pair;
+
+	/**
+	 * get the table for the given elements, it is made only if it is not remembered from before
+	 * @param instruction_set - the instruction set of the mP
+	 * @param elements_usable - descriptors for all the elements that are available to the function to operate with,
+	 * 		  such as registers and memory locations
+	 * @param single - the memory location for instructions that need a single memory location, null if there is none
+	 * @param pair - the first of two consecutive memory locations for instructions that need two, null if there are none
+	 * @param smallest_code - out of the codes with the least number of instructions keep the one with the least size in bytes,
+	 * 		  otherwise keep the first one found
+	 * @return the table
+	 */
+	public static DurationTable getInstance ( InstructionSet instruction_set , Element[] elements_usable , Element single , Element pair , boolean smallest_code ) {
+		String key = getKey(instruction_set, new Elements(elements_usable), single, pair, smallest_code);
+		synchronized ( cache ) {
+			DurationTable res = cache.get(key);
+			if ( res != null ) return res;
+		}
+		//made outside of the lock, if two threads make the same table at once either one can be kept
+		DurationTable res = new DurationTable(instruction_set, elements_usable, single, pair, smallest_code);
+		synchronized ( cache ) {
+			cache.put(key, res);
+		}
+		return res;
+	}
+
+	/**
+	 * two sets of parameters get the same key only if they make the same table
+	 */
+	private static String getKey ( InstructionSet instruction_set , Elements elements , Element single , Element pair , boolean smallest_code ) {
+		return instruction_set.mP+";"+elements.getE()+";"+(single != null?single.description:"")+";"+
+			   (pair != null?pair.description:"")+";"+smallest_code;
+	}
+
+	/**
+	 * separates the instructions that we can use out of the whole instruction set of the mP
+	 * with respect to the elements_usable, and will then calculate all possible duration of instructions segments of maximum instructions
+	 * to max_instruction_limit
+	 * the parameters are the same as in getInstance
+	 */
+	private DurationTable ( InstructionSet instruction_set , Element[] elements_usable , Element single , Element pair , boolean smallest_code ) {
+		ArrayList<InstructionData> instructions_available = instruction_set.getAllAvailableInstructions(elements_usable,smallest_code);
+		this.instructions_available = Collections.unmodifiableList(instructions_available);
+
+		 /*
+		 * the maximum possible duration of code segments we see if we can create,
+		 * depends on 2 factors, the maximum number of instructions and the maximum duration of a single instruction
+		 * maximum number of instructions < 50
+		 * && maximum duration of a single instruction (for 8085) is 16
+		 * =>  maximum possible duration =~ 800
+		 * still we allow for some added duration, just in case
+		 * we should compute this for every table separate so we don't do any excess computing
+		 */
+		int max_possible_duration = max_instruction_limit*getMaximumInstructionDuration()+1;
+		this.single = single;
+		this.pair = pair;
+		predecessor = new int[max_possible_duration];
+		instruction_used = new short[max_possible_duration];
+		length = new short[max_possible_duration];
+		sequences = new InstructionSequence[max_possible_duration];
+		//all are not possible in start
+		Arrays.fill(predecessor, -1);
+		// no instructions are needed for duration of 0
+		predecessor[0] = 0;
+		//logic for generating, we must use at max 'max_instruction_limit' instructions
+		//after the k-th step all the durations that need k+1 instructions are found
+		//reference on algorithm used, here -> http://www.seeingwithc.org/topic1html.html
+
+		for ( int k = 0 ; k < max_instruction_limit ; ++k ) {
+			for ( int i = max_possible_duration-1 ; i >= 0 ; --i ) {
+				if ( predecessor[i] != -1 ) {
+					for ( int w = 0 ; w  < instructions_available.size() ; ++w ) {
+						int next = i+instructions_available.get(w).getDuration();
+						if ( next < max_possible_duration && predecessor[next] == -1 ) {
+							predecessor[next] = i;
+							instruction_used[next] = (short) w;
+							length[next] = (short) (length[i]+1);
+						}
+					}
+				}
+			}
+		}
+		if ( smallest_code ) {
+			keepSmallestCode(max_possible_duration);
+		}
+		makeIndex(max_possible_duration);
+	}
+
+	/**
+	 * fills the next_possible and maximum_duration arrays, for every instruction limit
+	 * @param max_possible_duration - the size of the table
+	 */
+	private void makeIndex ( int max_possible_duration ) {
+		next_possible = new short[max_instruction_limit+1][max_possible_duration];
+		maximum_duration = new int[max_instruction_limit+1];
+		for ( int k = 0 ; k <= max_instruction_limit ; ++k ) {
+			short next = -1;
+			for ( int i = max_possible_duration-1 ; i >= 0 ; --i ) {
+				if ( predecessor[i] != -1 && length[i] <= k ) {
+					if ( next == -1 ) maximum_duration[k] = i;
+					next = (short) i;
+				}
+				next_possible[k][i] = next;
+			}
+		}
+	}
+
+	/**
+	 * changes the back-pointers so that the code for every duration is the smallest one in bytes
+	 * out of all the codes with the least number of instructions,
+	 * the code for a duration is made of the code for a shorter duration with one instruction less, and one more instruction,
+	 * so if we go through the durations in ascending order the codes we build on are already the smallest ones
+	 * @param max_possible_duration - the size of the table
+	 */
+	private void keepSmallestCode ( int max_possible_duration ) {
+		size = new int[max_possible_duration];
+		for ( int i = 1 ; i < max_possible_duration ; ++i ) {
+			if ( predecessor[i] == -1 ) continue;
+			size[i] = Integer.MAX_VALUE;
+			for ( int w = 0 ; w  < instructions_available.size() ; ++w ) {
+				int previous = i-instructions_available.get(w).getDuration();
+				if ( previous >= 0 && predecessor[previous] != -1 && length[previous] == length[i]-1 &&
+					 size[previous]+instructions_available.get(w).getSize() < size[i] ) {
+					size[i] = size[previous]+instructions_available.get(w).getSize();
+					predecessor[i] = previous;
+					instruction_used[i] = (short) w;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param duration - in T-states of the mP
+	 * @return - loop-less code that lasts exactly duration T-states, null if there is no such code
+	 * 		   the code is shared with everyone asking for the same duration and can not be changed
+	 */
+	public Executable getExecutable ( int duration ) {
+		if ( !isPossible(duration) ) return null;
+		return getSequence(duration);
+	}
+
+	/**
+	 * @param duration - a possible duration in T-states of the mP
+	 * @return - the code for the duration, made from the code for its predecessor if it is not remembered from before
+	 */
+	private InstructionSequence getSequence ( int duration ) {
+		if ( duration == 0 ) return InstructionSequence.empty;
+		InstructionSequence res = sequences[duration];
+		if ( res == null ) {
+			res = getSequence(predecessor[duration]).append(getInstruction(instructions_available.get(instruction_used[duration])));
+			sequences[duration] = res;
+		}
+		return res;
+	}
+
+	/**
+	 * @param is_data - one of the instructions_available
+	 * @return - the instruction, with the memory location set if it needs one
+	 */
+	private Executable getInstruction ( InstructionData is_data ) {
+		if ( (is_data.getElementsAffected().getE()&(1<<9)) > 0 ) {
+			return is_data.getExecutable("16b",single.description);
+		}
+		if ( (is_data.getElementsAffected().getE()&(1<<10)) > 0 ) {
+			return is_data.getExecutable("16b",pair.description);
+		}
+		return is_data.getExecutable();
+	}
+
+	/**
+	 * @param duration - in T-states of the mP
+	 * @return - can loop-less code that lasts exactly duration T-states be made with max_instruction_limit instructions
+	 */
+	public boolean isPossible ( int duration ) {
+		return duration >= 0 && duration < predecessor.length && predecessor[duration] != -1;
+	}
+
+	/**
+	 * @param duration - in T-states of the mP
+	 * @param instruction_limit - the maximum number of instructions in the code
+	 * @return - can loop-less code that lasts exactly duration T-states be made with at most instruction_limit instructions
+	 */
+	public boolean isPossible ( int duration , int instruction_limit ) {
+		return isPossible(duration) && length[duration] <= instruction_limit;
+	}
+
+	/**
+	 * @param duration - in T-states of the mP
+	 * @param instruction_limit - the maximum number of instructions in the code
+	 * @return - the shortest duration not shorter than duration, that can be made with at most instruction_limit instructions,
+	 * 		   -1 if there is none
+	 */
+	public int getNextPossible ( long duration , int instruction_limit ) {
+		if ( duration < 0 ) duration = 0;
+		if ( duration >= predecessor.length || instruction_limit < 0 ) return -1;
+		if ( instruction_limit > max_instruction_limit ) instruction_limit = max_instruction_limit;
+		return next_possible[instruction_limit][(int) duration];
+	}
+
+	/**
+	 * @param min_time - lower bound for the duration of the code
+	 * @param max_time - upper bound for the duration of the code
+	 * @return - the least number of instructions needed for loop-less code with a duration in [min_time,max_time],
+	 * 		   -1 if there is no such code
+	 */
+	public int getLeastLength ( long min_time , long max_time ) {
+		int res = -1;
+		if ( min_time < 0 ) min_time = 0;
+		if ( min_time >= predecessor.length ) return res;
+		for ( int i = (int) min_time ; i <= max_time && i < predecessor.length ; ++i ) {
+			if ( isPossible(i) && ( res == -1 || length[i] < res ) ) {
+				res = length[i];
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @param duration - in T-states of the mP
+	 * @return - the number of instructions in the code that lasts exactly duration T-states, -1 if there is no such code
+	 */
+	public int getLength ( int duration ) {
+		if ( !isPossible(duration) ) return -1;
+		return length[duration];
+	}
+
+	/**
+	 * @param duration - in T-states of the mP
+	 * @return - the size in bytes of the code that lasts exactly duration T-states, -1 if there is no such code
+	 */
+	public int getSize ( int duration ) {
+		if ( !isPossible(duration) ) return -1;
+		if ( size != null ) return size[duration];
+		int res = 0;
+		for ( int i = duration ; i > 0 ; i = predecessor[i] ) {
+			res += instructions_available.get(instruction_used[i]).getSize();
+		}
+		return res;
+	}
+
+	/**
+	 * @return - the number of durations in the table, all the durations in the table are smaller than this
+	 */
+	public int size() {
+		return predecessor.length;
+	}
+
+	/**
+	 * returns the longest possible duration with the current available instructions
+	 * @return - duration in T-states of the mP of the longest available instruction
+	 */
+	private int getMaximumInstructionDuration() {
+		int res = 4;
+		if ( instructions_available == null ) return res;
+		for ( InstructionData i : instructions_available ) {
+			if ( i.getDuration() > res ) res = i.getDuration();
+		}
+		return res;
+	}
+
+	/**
+	 * @param instruction_limit - the maximum number of instructions in the code
+	 * @return - duration in T-states of the mP of the longest created loopless instruction sequence
+	 * 			 with at most instruction_limit instructions, 0 default
+	 */
+	public int getMaximumDuration( int instruction_limit ) {
+		if ( instruction_limit < 0 ) return 0;
+		if ( instruction_limit > max_instruction_limit ) instruction_limit = max_instruction_limit;
+		return maximum_duration[instruction_limit];
+	}
+
+	/**
+	 * @return the instructions_available, the list can not be changed
+	 */
+	public List<InstructionData> getInstructionsAvailable() {
+		return instructions_available;
+	}
+
+}
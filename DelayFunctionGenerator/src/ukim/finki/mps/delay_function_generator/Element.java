@@ -65,6 +65,13 @@ public class Element {
 	 */
 	public final static String STACK_NOT_VALID = "stack not valid";
 	
+	/**
+	 * define for stack when we can't do pushes and pops, and the stack pointer must have the same value at the end,
+	 * the commands that only read the stack pointer can still be used, 
+	 * the CodeBuilder uses it instead of STACK_NOT_VALID when the function ends with a return
+	 */
+	public final static String STACK_POINTER_KEPT = "stack pointer kept";
+	
 	/**
 	 * a constructor from GUI data
 	 * default status = available
@@ -31,6 +31,8 @@ public class Elements {
 	 *  
 	 *  bit 11 states whether or not the instruction affects or need the stack to be operational
 	 *  
+	 *  bit 12 states whether or not the instruction changes the value of the stack pointer, given as SP in the registers affected
+	 *  
 	 *  in all cases the value '0' stands for NO, it is NOT needed and/or it is NOT affected
 	 *  while the value '1' stands for the opposite YES, it IS needed and/or it IS affected 
 	 *  
@@ -83,6 +85,11 @@ public class Elements {
 	 */
 	private static final int[] stack_encoding = { 0 , 2048 };
 	
+	/**
+	 *  is the stack pointer changed
+	 */
+	private static final int stack_pointer_encoding = 4096;
+	
 	/**
 	 * a constructor for creating elements objects from string descriptors of instruction read from files
 	 * @param registers - string descriptor of the available registers
@@ -95,10 +102,19 @@ public class Elements {
 			char c = registers.charAt(i);
 			e += encodeRegister(c,e);
 		}
+		if ( registers.contains("SP") ) e += stack_pointer_encoding;
 		e += memory_encoding[Integer.parseInt(memory_locations)];
 		e += stack_encoding[Integer.parseInt(stack)];
 	}
 	
+	/**
+	 * a constructor for elements that are already encoded, such as the ones read from the instruction set image
+	 * @param e - the encoding
+	 */
+	public Elements ( int e ) {
+		this.e = e;
+	}
+	
 	/**
 	 * constructor for when we want to create a stub-comparison object for determining whether or not we can use a specific instruction
 	 * with the usable elements, used when we want to separate the available instructions out of the whole instruction set
@@ -134,10 +150,14 @@ public class Elements {
 			}
 			else {
 			if ( el.type == Element.STACK ) {
-				if ( el.status.equals(Element.available) && el.description.equals(Element.STACK_NOT_VALID) ) {
+				if ( el.status.equals(Element.available) && 
+						( el.description.equals(Element.STACK_NOT_VALID) || el.description.equals(Element.STACK_POINTER_KEPT) ) ) {
 					if ( (e&stack_encoding[1]) == 0 ) {
 							e += stack_encoding[1];
 					}
+					if ( el.description.equals(Element.STACK_NOT_VALID) && (e&stack_pointer_encoding) == 0 ) {
+						e += stack_pointer_encoding;
+					}
 				}
 			}
 			else {
@@ -200,6 +220,7 @@ public class Elements {
 		res += "STACK: ";
 		if ( (e&stack_encoding[1]) == 0 ) res += " NOT ";
 		res += " REQUIRED";
+		if ( (e&stack_pointer_encoding) != 0 ) res += " , STACK POINTER CHANGED";
 		return res;
 	}
 	
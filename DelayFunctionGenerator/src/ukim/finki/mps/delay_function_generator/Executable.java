@@ -1,7 +1,10 @@
 package ukim.finki.mps.delay_function_generator;
+import java.io.IOException;
 
 /**
  * defines the interface for any instruction or group of instructions
+ * an executable is never changed once made, the groups made of other executables compute their time, length and size
+ * when they are made, so asking for them doesn't go through the whole group every time
  * @author Andrej Gajduk
  *
  */
@@ -28,6 +31,41 @@ public abstract class Executable {
 	 */
 	public abstract int length();
 	
+	/**
+	 * how much memory does this executable take
+	 * @return size in bytes
+	 */
+	public abstract int size();
+	
+	/**
+	 * writes the instructions of this executable, in the order they are executed
+	 * @param out - the writer for the code
+	 */
+	public abstract void write ( AssemblyWriter out ) throws IOException;
+	
+	/**
+	 * writes this executable as assembler code, one instruction per line
+	 * @param out - where the code is written to, such as a Writer for an .asm file
+	 */
+	public void emit ( Appendable out ) throws IOException {
+		new AssemblyWriter(out).write(this).finish();
+	}
+	
+	/**
+	 * the assembler code, one instruction per line, as written by the emit method
+	 */
+	@Override
+	public String toString() {
+		StringBuilder res = new StringBuilder();
+		try {
+			emit(res);
+		} catch (IOException e) {
+			//a StringBuilder doesn't throw it
+			e.printStackTrace();
+		}
+		return res.toString();
+	}
+	
 
 	
 }
@@ -1,7 +1,9 @@
 package ukim.finki.mps.delay_function_generator;
+import java.io.IOException;
 
 /**
  * a single instruction defined in the instruction set manual
+ * an instruction is never changed once made, so the same instruction can be shared by many groups
  * @author Andrej Gajduk
  *
  */
@@ -10,13 +12,23 @@ public class Instruction extends Executable {
 	/**
 	 * the code that fully describes this instruction
 	 */
-	private String instruction_code;
+	private final String instruction_code;
 	
 	/**
 	 * the duration in T cycles of the instruction
 	 */
-	private int duration;
-	private static final int duration_not_set = -1;
+	private final long duration;
+	private static final long duration_not_set = -1;
+	
+	/**
+	 * the size in bytes of the instruction, 0 when not known
+	 */
+	private final int size;
+	
+	/**
+	 * the description of the instruction in the instruction set, null if it is not from an instruction set
+	 */
+	private final InstructionData instruction_data;
 	
 	/**
 	 * a constructor that only sets the instruction op-code,
@@ -27,16 +39,42 @@ public class Instruction extends Executable {
 	public Instruction(String instruction_code) {
 		this.instruction_code = instruction_code;
 		duration = duration_not_set;
+		size = 0;
+		instruction_data = null;
+	}
+	
+	/**
+	 * a constructor for an instruction with unknown size
+	 * @param instruction_code - the instruction code as seen in assembler compiler
+	 * @param duration - in T states of the mP
+	 */
+	public Instruction(String instruction_code , long duration) {
+		this(instruction_code,duration,0);
 	}
 	
 	/**
 	 * a full all-fields constructor
 	 * @param instruction_code - the instruction code as seen in assembler compiler
 	 * @param duration - in T states of the mP
+	 * @param size - in bytes
 	 */
-	public Instruction(String instruction_code , int duration) {
+	public Instruction(String instruction_code , long duration , int size) {
 		this.instruction_code = instruction_code;
 		this.duration = duration;
+		this.size = size;
+		instruction_data = null;
+	}
+	
+	/**
+	 * a constructor for an instruction from the instruction set, the duration and size are the ones in the instruction data
+	 * @param instruction_code - the instruction code as seen in assembler compiler, with the immediate data set if there is any
+	 * @param instruction_data - the description of the instruction in the instruction set
+	 */
+	public Instruction(String instruction_code , InstructionData instruction_data) {
+		this.instruction_code = instruction_code;
+		this.duration = instruction_data.getDuration();
+		this.size = instruction_data.getSize();
+		this.instruction_data = instruction_data;
 	}
 
 	/**
@@ -47,7 +85,7 @@ public class Instruction extends Executable {
 	@Override
 	public long time() {
 		if ( duration == duration_not_set ) {
-			System.out.println("You just read an unset duration of the instruction "+instruction_code+" any further calculations is wrong");
+			throw new IllegalStateException("The duration of the instruction "+instruction_code+" is not set");
 		}
 		return duration;
 	}
@@ -56,6 +94,25 @@ public class Instruction extends Executable {
 	public String toString() {
 		return instruction_code;
 	}
+	
+	@Override
+	public void write(AssemblyWriter out) throws IOException {
+		out.instruction(instruction_code);
+	}
+	
+	/**
+	 * @return the description of the instruction in the instruction set, null if it is not from an instruction set
+	 */
+	public InstructionData getInstructionData() {
+		return instruction_data;
+	}
+	
+	/**
+	 * @return the immediate data set in the instruction code, null if there is none
+	 */
+	public String getOperand() {
+		return instruction_data != null?instruction_data.getOperand(instruction_code):null;
+	}
 
 	/**
 	 * how many instructions are in this instruction? one undoubtedly
@@ -66,6 +123,14 @@ public class Instruction extends Executable {
 		return 1;
 	}
 	
+	/**
+	 * @return size in bytes, 0 when not known
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+	
 	/**
 	 * checks for equality with another instruction,
 	 * two instructions are proclaimed equal if the have the same instruction code
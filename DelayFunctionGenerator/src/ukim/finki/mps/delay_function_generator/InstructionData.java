@@ -25,29 +25,48 @@ public class InstructionData {
 	/**
 	 * instruction code as seen in assembler compiler
 	 */
-	private String instruction_code;
+	private final String instruction_code;
 	
 	/**
 	 * duration in T states of the mP
 	 */
-	private int duration;
+	private final int duration;
 	
 	/**
 	 * size in bytes
 	 */
-	private int size;
+	private final int size;
 	
 	/**
 	 * 4) REGS affected
 	 * 5) number of memory locations needed 0, or 2
 	 * 6) is the stack pointer read or changed, and/or is the stack contents changed
 	 */
-	private Elements elements_affected;
+	private final Elements elements_affected;
 	
 	/**
 	 * is this instruction free to be used from the auto-generating code builder
 	 */
-	private boolean to_use;
+	private final boolean to_use;
+	
+	/**
+	 * the kind of immediate data in the instruction code, "8b" or "16b", null if it has none
+	 */
+	private final String data_type;
+	
+	/**
+	 * the instruction code split around the immediate data, code_prefix+data+code_suffix is the code with the data set
+	 * made once by the constructor, so that setting the data needs no searching
+	 */
+	private final String code_prefix;
+	
+	private final String code_suffix;
+	
+	/**
+	 * the instruction with the code left as it is, an instruction is never changed once made
+	 * so the same one is given to everyone asking for an instruction without immediate data, instead of making a new one every time
+	 */
+	private final Instruction plain_instruction;
 	
 	/**
 	 * use this constructor to make an InstructionMetadata object from the description read from a text file
@@ -55,12 +74,43 @@ public class InstructionData {
 	 * @param instruction_description - the one-line description of an instruction in specified format
 	 */
 	public InstructionData ( String instruction_description ) {
-		StringTokenizer tkr = new StringTokenizer(instruction_description,";");
-		instruction_code = tkr.nextToken().trim();
-		duration = Integer.parseInt(tkr.nextToken().trim());
-		size = Integer.parseInt(tkr.nextToken().trim());
-		elements_affected = new Elements(tkr.nextToken().trim(), tkr.nextToken().trim(), tkr.nextToken().trim());
-		to_use = tkr.nextToken().trim().equals("-")?false:true;
+		this(new StringTokenizer(instruction_description,";"));
+	}
+	
+	/**
+	 * reads the fields in the order they are given in the text file, the arguments are evaluated left to right
+	 */
+	private InstructionData ( StringTokenizer tkr ) {
+		this(tkr.nextToken().trim(), 
+			 Integer.parseInt(tkr.nextToken().trim()), 
+			 Integer.parseInt(tkr.nextToken().trim()), 
+			 new Elements(tkr.nextToken().trim(), tkr.nextToken().trim(), tkr.nextToken().trim()), 
+			 tkr.nextToken().trim().equals("-")?false:true);
+	}
+	
+	/**
+	 * a full-field constructor, used for the instructions read from the instruction set image
+	 */
+	public InstructionData ( String instruction_code , int duration , int size , Elements elements_affected , boolean to_use ) {
+		this.instruction_code = instruction_code;
+		this.duration = duration;
+		this.size = size;
+		this.elements_affected = elements_affected;
+		this.to_use = to_use;
+		//find the immediate data in the instruction code and split the code around it
+		String type = null;
+		int index = -1;
+		for ( String t : new String[] { "16b" , "8b" } ) {
+			index = instruction_code.indexOf(t);
+			if ( index != -1 ) {
+				type = t;
+				break;
+			}
+		}
+		data_type = type;
+		code_prefix = type != null?instruction_code.substring(0, index):instruction_code;
+		code_suffix = type != null?instruction_code.substring(index+type.length()):"";
+		plain_instruction = new Instruction(instruction_code,this);
 	}
 
 	@Override
@@ -84,31 +134,41 @@ public class InstructionData {
 	 * returns an Executable object representing this instruction,
 	 * usually this will be a single instruction
 	 * if there is some immediate data we need to replace, replace them we shall with random values
+	 * otherwise the same instruction is returned every time
 	 * @return an executable - that corresponds to this instruction metadata
 	 */
 	public Executable getExecutable () {
-		Executable exec = null;
-		if ( instruction_code.contains("8b") ) {
-			exec = getExecutable("8b", Integer.toString((int)(Math.random()*(1<<8))));
-		} else if ( instruction_code.contains("16b") ) {
-			exec = getExecutable("16b", Integer.toString((int)(Math.random()*(1<<8))));
-		}
-		else {
-			exec = new Instruction(instruction_code,duration);
+		if ( data_type != null ) {
+			return getExecutable(data_type, Integer.toString((int)(Math.random()*(1<<8))));
 		}
-		return exec;
+		return plain_instruction;
 	}
 	
 	/**
 	 * returns an Executable object representing this instruction,
 	 * usually this will be a single instruction,
+	 * @param data_regex - the kind of immediate data, "8b" or "16b", the code is left as it is if the instruction has no such data
 	 * @param value - the int value to be set as the data
 	 * @return an executable - that corresponds to this instruction metadata
 	 * *IMPORTANT NOTICE: this method should be used for all instructions where we have some imidiate
 	 * data that needs to be set in the instruction code itself
 	 */
 	public Executable getExecutable ( String data_regex ,String value ) {
-		return new Instruction(instruction_code.replaceAll(data_regex,value),duration);
+		if ( data_type == null || !data_type.equals(data_regex) ) {
+			return plain_instruction;
+		}
+		String code = new StringBuilder(code_prefix.length()+value.length()+code_suffix.length())
+								.append(code_prefix).append(value).append(code_suffix).toString();
+		return new Instruction(code,this);
+	}
+
+	/**
+	 * @param code - the code of an instruction made by getExecutable
+	 * @return - the immediate data set in the code, null if this instruction has none
+	 */
+	public String getOperand ( String code ) {
+		if ( data_type == null || code.length() < code_prefix.length()+code_suffix.length() ) return null;
+		return code.substring(code_prefix.length(), code.length()-code_suffix.length());
 	}
 
 	/**
@@ -131,10 +191,10 @@ public class InstructionData {
 	
 
 	/**
-	 * @param instruction_code the instruction_code to set
+	 * @return the kind of immediate data in the instruction code, "8b" or "16b", null if it has none
 	 */
-	public void setInstructionCode(String instruction_code) {
-		this.instruction_code = instruction_code;
+	public String getDataType() {
+		return data_type;
 	}
 	
 
@@ -146,14 +206,6 @@ public class InstructionData {
 	}
 	
 
-	/**
-	 * @param duration the duration to set
-	 */
-	public void setDuration(int duration) {
-		this.duration = duration;
-	}
-	
-
 	/**
 	 * @return the size
 	 */
@@ -162,14 +214,6 @@ public class InstructionData {
 	}
 	
 
-	/**
-	 * @param size the size to set
-	 */
-	public void setSize(int size) {
-		this.size = size;
-	}
-	
-
 	/**
 	 * @return the elements_affected
 	 */
@@ -178,27 +222,11 @@ public class InstructionData {
 	}
 	
 
-	/**
-	 * @param elements_affected the elements_affected to set
-	 */
-	public void setElementsAffected(Elements elements_affected) {
-		this.elements_affected = elements_affected;
-	}
-	
-
 	/**
 	 * @return the to_use
 	 */
 	public boolean isTo_use() {
 		return to_use;
 	}
-	
-
-	/**
-	 * @param to_use the to_use to set
-	 */
-	public void setTo_use(boolean to_use) {
-		this.to_use = to_use;
-	}
 
 }
@@ -1,26 +1,36 @@
 package ukim.finki.mps.delay_function_generator;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * a group of instructions defined in the instruction set manual
+ * the group is never changed once made, its time, length and size are computed in the constructor
  * @author Andrej Gajduk
  *
  */
 public class InstructionGroup extends Executable {
 	
 	/**
-	 * the group of instructions stored in an array list to provide dynamic adding and removing instructions
-	 * the order does not matter and does not have to be maintained
+	 * the group of instructions stored in an array list, in the order they are executed
 	 */
-	private ArrayList<Executable> instuctions;
+	private final ArrayList<Executable> instuctions;
+	
+	/**
+	 * the sums of the times, lengths and sizes for all instructions in this group
+	 */
+	private final long time;
+	
+	private final int length;
+	
+	private final int size;
 	
 	/**
 	 * default constructor, initialize the instructions to an empty array
 	 */
 	public InstructionGroup () {
-		instuctions = new ArrayList<Executable>();
+		this(new Executable[0]);
 	}
 	
 	/**
@@ -28,18 +38,7 @@ public class InstructionGroup extends Executable {
 	 * @param instuctions - copy this as the instruction group
 	 */
 	public InstructionGroup ( ArrayList instuctions ) {
-		this.instuctions = new ArrayList<Executable>(instuctions.size());
-		if ( instuctions == null || instuctions.size() < 0 ) return;
-		if ( instuctions.get(0).getClass() == InstructionData.class ) {
-			for ( Object is : instuctions ) {
-				this.instuctions.add(((InstructionData) is).getExecutable());
-			}
-		}
-		else {
-			for ( Object is : instuctions ) {
-				this.instuctions.add((Executable) is);
-			}
-		}
+		this(toExecutables(instuctions));
 	}	
 	
 	/**
@@ -48,30 +47,67 @@ public class InstructionGroup extends Executable {
 	 * @param instuctions - copy this as the instruction group
 	 */
 	public InstructionGroup ( ArrayList<InstructionData> instuctions , Element single , Element pair ) {
-		this.instuctions = new ArrayList<Executable>(instuctions.size());
-		if ( instuctions == null || instuctions.size() < 0 ) return;
-		if ( instuctions.get(0).getClass() == InstructionData.class ) {
-			for ( Object is : instuctions ) {
-				InstructionData is_data = (InstructionData) is;
-				if ( (is_data.getElementsAffected().getE()&(1<<9)) > 0 ) {
-					this.instuctions.add(((InstructionData) is).getExecutable("16b",single.description));
-				} else {
-				if ( (is_data.getElementsAffected().getE()&(1<<10)) > 0 ) {
-					this.instuctions.add(((InstructionData) is).getExecutable("16b",pair.description));
-				} else {
-				 
-				this.instuctions.add(((InstructionData) is).getExecutable());}}
-			}
-		}
+		this(toExecutables(instuctions, single, pair));
 	}	
 
 	/**
-	 * a shortcut constructor for creating a single instruction groups
-	 * @param instruction
+	 * a shortcut constructor for creating a group out of a few executables,
+	 * every other constructor ends up here, so the time, length and size are computed only here
+	 * @param instructions - the executables in the order they are executed
+	 */
+	public InstructionGroup(Executable ... instructions) {
+		this.instuctions = new ArrayList<Executable>(instructions.length);
+		Collections.addAll(this.instuctions, instructions);
+		long time = 0;
+		int length = 0;
+		int size = 0;
+		for ( Executable e : instructions ) {
+			if ( e == null ) continue;
+			time += e.time();
+			length += e.length();
+			size += e.size();
+		}
+		this.time = time;
+		this.length = length;
+		this.size = size;
+	}
+	
+	/**
+	 * @param instuctions - executables, or instruction data whose executables are to be used,
+	 * 		  a wildcard list so that the raw list of the public constructor is taken without a warning
+	 * @return the executables, in the same order
+	 */
+	private static Executable[] toExecutables ( List<?> instuctions ) {
+		if ( instuctions == null ) return new Executable[0];
+		Executable res[] = new Executable[instuctions.size()];
+		for ( int i = 0 ; i < res.length ; ++i ) {
+			Object is = instuctions.get(i);
+			res[i] = is instanceof InstructionData?((InstructionData) is).getExecutable():(Executable) is;
+		}
+		return res;
+	}
+	
+	/**
+	 * @param instuctions - the instruction data
+	 * @param single - the memory location for the instructions that need a single memory location
+	 * @param pair - the memory locations for the instructions that need two memory locations
+	 * @return the executables of the instruction data with the memory locations set, in the same order
 	 */
-	public InstructionGroup(Executable instruction) {
-		this.instuctions = new ArrayList<Executable>();
-		this.instuctions.add(instruction);
+	private static Executable[] toExecutables ( ArrayList<InstructionData> instuctions , Element single , Element pair ) {
+		if ( instuctions == null ) return new Executable[0];
+		Executable res[] = new Executable[instuctions.size()];
+		for ( int i = 0 ; i < res.length ; ++i ) {
+			InstructionData is_data = instuctions.get(i);
+			if ( (is_data.getElementsAffected().getE()&(1<<9)) > 0 ) {
+				res[i] = is_data.getExecutable("16b",single.description);
+			} else
+			if ( (is_data.getElementsAffected().getE()&(1<<10)) > 0 ) {
+				res[i] = is_data.getExecutable("16b",pair.description);
+			} else {
+				res[i] = is_data.getExecutable();
+			}
+		}
+		return res;
 	}
 
 	/**
@@ -81,30 +117,14 @@ public class InstructionGroup extends Executable {
 	 */
 	@Override
 	public long time() {
-		if ( instuctions == null || instuctions.size() == 0 ) return 0;
-		long total_time = 0;
-		for ( Executable e : instuctions ) {
-			total_time += e == null ?0:e.time();
-		}
-		return total_time;
+		return time;
 	}
 	
 	@Override
-	public String toString() {
-		if ( instuctions == null ) return "";//"ERROR null value found";
-		if ( instuctions.size() == 0 ) return "";//"NO INSTRUCTIONS. EMPTY GROUP";
-		String res = "";
-		boolean flag = true;
-		for ( Executable i : instuctions ) {
-			if ( flag ) {
-				flag = false;
-			}
-			else {
-				res += "\n";
-			}
-			res += i.toString() ;
+	public void write(AssemblyWriter out) throws IOException {
+		for ( Executable e : instuctions ) {
+			out.write(e);
 		}
-		return res;
 	}
 
 	/**
@@ -113,36 +133,22 @@ public class InstructionGroup extends Executable {
 	 */
 	@Override
 	public int length() {
-		if ( instuctions == null || instuctions.size() == 0 ) return 0;
-		int total_length = 0;
-		for ( Executable e : instuctions ) {
-			total_length += e == null ?0:e.length();
-		}
-		return total_length;
+		return length;
 	}
 
 	/**
-	 * used when we want an executable to be added to this group as the last Executable in the current sequence
-	 * @param exec - the executable to be added to this group
+	 * @return size in bytes, the sum of the sizes of all instructions in this group
 	 */
-	public Executable append(Executable exec) {
-		if ( instuctions == null ) {
-			instuctions = new ArrayList<Executable>();
-		}
-		instuctions.add(exec);	
-		return this;
+	@Override
+	public int size() {
+		return size;
 	}
-	
+
 	/**
-	 * used when we want an executable to be added to this group as the first Executable in the current sequence
-	 * @param exec - the executable to be added to this group
+	 * @return the executables in this group in the order they are executed, the list can not be changed
 	 */
-	public Executable insert(Executable exec) {
-		if ( instuctions == null ) {
-			instuctions = new ArrayList<Executable>();
-		}
-		instuctions.add(0, exec);
-		return this;
+	public List<Executable> getInstructions() {
+		return Collections.unmodifiableList(instuctions);
 	}
 
 	/**
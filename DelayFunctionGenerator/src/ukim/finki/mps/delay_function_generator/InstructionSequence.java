@@ -0,0 +1,106 @@
+package ukim.finki.mps.delay_function_generator;
+import java.io.IOException;
+
+/**
+ * a sequence of instructions that is never changed once made, kept as a persistent list:
+ * every sequence is a shorter sequence followed by one more executable,
+ * so appending to a sequence makes a new one and the shorter sequence is shared, not copied
+ * 
+ * used for the loop-less code in the DurationTable, the code for a duration is the code for a shorter duration 
+ * followed by one instruction, so the codes for all the durations of a table share their common beginnings
+ * *IMPORTANT NOTICE: the same sequence can be a part of many delay functions at once, 
+ * use an InstructionGroup when the instructions need to be changed
+ * @author Andrej Gajduk
+ *
+ */
+public class InstructionSequence extends Executable {
+
+	/**
+	 * the sequence with no instructions, every other sequence is made by appending to it
+	 */
+	public static final InstructionSequence empty = new InstructionSequence(null,null);
+
+	/**
+	 * all but the last executable of this sequence, null only for the empty sequence
+	 */
+	private final InstructionSequence previous;
+
+	/**
+	 * the last executable of this sequence, null only for the empty sequence
+	 */
+	private final Executable last;
+
+	/**
+	 * the time, length and size of the whole sequence, computed once when the sequence is made
+	 */
+	private final long time;
+
+	private final int length;
+
+	private final int size;
+
+	private InstructionSequence ( InstructionSequence previous , Executable last ) {
+		this.previous = previous;
+		this.last = last;
+		time = previous == null?0:previous.time+last.time();
+		length = previous == null?0:previous.length+last.length();
+		size = previous == null?0:previous.size+last.size();
+	}
+
+	/**
+	 * @param exec - the executable to follow the instructions of this sequence
+	 * @return a new sequence made of this sequence followed by exec, this sequence is not changed
+	 */
+	public InstructionSequence append ( Executable exec ) {
+		return new InstructionSequence(this, exec);
+	}
+
+	/**
+	 * @return time in T- number of states of the mP, the sum of the times of all the instructions
+	 */
+	@Override
+	public long time() {
+		return time;
+	}
+
+	/**
+	 * @return number of instructions in the sequence
+	 */
+	@Override
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @return size in bytes of the sequence
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return all but the last executable of this sequence, null for the empty sequence
+	 */
+	public InstructionSequence getPrevious() {
+		return previous;
+	}
+
+	/**
+	 * @return the last executable of this sequence, null for the empty sequence
+	 */
+	public Executable getLast() {
+		return last;
+	}
+
+	/**
+	 * the list is linked from the last executable to the first one, so the shorter sequence is written first
+	 */
+	@Override
+	public void write(AssemblyWriter out) throws IOException {
+		if ( previous == null ) return;
+		previous.write(out);
+		out.write(last);
+	}
+
+}
@@ -1,11 +1,17 @@
 package ukim.finki.mps.delay_function_generator;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Scanner;
 
 /**
  * object containing all the instructions and their definitions, as defined in the manual
+ * an instruction set is read only once for every mP and doesn't change after that, so it can be shared by all the threads
  * @author Andrej Gajduk
  *
  */
@@ -14,31 +20,30 @@ public class InstructionSet {
 	/**
 	 * describes the mP this instruction set refers to
 	 */
-	String mP;
+	final String mP;
 	
 	/**
-	 * the only instance of the instruction set that will ever be used
+	 * the instruction sets made so far, by their mP, no instruction set is read twice
 	 */
-	private static InstructionSet instruction_set;
+	private static final HashMap<String,InstructionSet> instruction_sets = new HashMap<String,InstructionSet>();
 	
 	/**
 	 * all the instructions that make up this instruction set,
 	 * fully described as stated in the InstructionMetadata class
 	 */
-	private ArrayList<InstructionData> instructions;
-
+	private final List<InstructionData> instructions;
+	
 	/**
-	 * @return the instructions
+	 * the index in instructions of every instruction code, as seen in assembler compiler,
+	 * if two instructions have the same code the first one is kept
 	 */
-	public ArrayList<InstructionData> getInstructions() {
-		return instructions;
-	}
+	private final HashMap<String,Integer> ids_by_code;
 
 	/**
-	 * @param instructions the instructions to set
+	 * @return the instructions, the list can't be changed
 	 */
-	public void setInstructions(ArrayList<InstructionData> instructions) {
-		this.instructions = instructions;
+	public List<InstructionData> getInstructions() {
+		return instructions;
 	}
 
 	/**
@@ -47,10 +52,30 @@ public class InstructionSet {
 	 */
 	protected InstructionSet( String mP ) {
 		this.mP = mP;
-		instructions = new ArrayList<InstructionData>();
+		//the image is much faster to read, the text file is only read if there is no image made from it
+		ArrayList<InstructionData> instructions = InstructionSetImage.read(new File(InstructionSetImage.text_file), new File(InstructionSetImage.image_file));
+		if ( instructions == null ) {
+			instructions = readText(InstructionSetImage.text_file);
+		}
+		this.instructions = Collections.unmodifiableList(instructions);
+		ids_by_code = new HashMap<String,Integer>();
+		for ( int i = 0 ; i < instructions.size() ; ++i ) {
+			if ( !ids_by_code.containsKey(instructions.get(i).getInstruction_code()) ) {
+				ids_by_code.put(instructions.get(i).getInstruction_code(), i);
+			}
+		}
+	}
+	
+	/**
+	 * reads the instructions from the text file, the format of the data is given in the file
+	 * @param file_name - the text file
+	 * @return the instructions in the order they are given in the file
+	 */
+	static ArrayList<InstructionData> readText( String file_name ) {
+		ArrayList<InstructionData> instructions = new ArrayList<InstructionData>();
 		FileInputStream reader = null;
 		try {
-			reader = new FileInputStream("Instruction Data.txt");
+			reader = new FileInputStream(file_name);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		}
@@ -78,20 +103,23 @@ public class InstructionSet {
 				}
 			}			
 		}
-		
+		in.close();
+		return instructions;
 	}
 	
 	/**
 	 * get an instance of the instruction set, global data entry point
-	 * use only a single instruction set object
+	 * use only a single instruction set object for every mP, it is read the first time it is asked for
+	 * synchronized so that the CodeBuilder can be used from many threads at once
 	 * @return instance of the instruction set
 	 */
-	public static InstructionSet getInstance( String mP ) {
-		if ( instruction_set == null || instruction_set.mP == null ||
-					instruction_set.mP.equals(mP) ) {
-			instruction_set = new InstructionSet(mP);
+	public static synchronized InstructionSet getInstance( String mP ) {
+		InstructionSet res = instruction_sets.get(mP);
+		if ( res == null ) {
+			res = new InstructionSet(mP);
+			instruction_sets.put(mP, res);
 		}
-		return instruction_set;
+		return res;
 	}
 	
 	/**
@@ -109,26 +137,41 @@ public class InstructionSet {
 	 * given the instruction_code return the InstructionData object that it corresponds to
 	 * @param string - instruction code as seen in assembler compiler
 	 * @return InstructionData for the given instruction code, null if no such instruction exists
-	 * *FURTHER NOTICE:this method is rarely called, otherwise it will have to be accelerated by using a HashMap or a Trie
 	 */
 	public InstructionData getInstruction(String string) {
-		for ( InstructionData ins : instructions ) {
-			if ( ins.getInstruction_code().equals(string) )
-				return ins;
-		}
-		return null;
+		Integer id = ids_by_code.get(string);
+		return id != null?instructions.get(id):null;
+	}
+	
+	/**
+	 * @param id - the id of an instruction, given by the getId method
+	 * @return InstructionData with the given id, null if there is no such instruction
+	 */
+	public InstructionData getInstruction(int id) {
+		return id >= 0 && id < instructions.size()?instructions.get(id):null;
+	}
+	
+	/**
+	 * the id is the index of the instruction in this instruction set, 
+	 * all the instructions with the same instruction code get the same id
+	 * @param instruction - the description of an instruction
+	 * @return the id of the instruction, -1 if there is no instruction with the same code in this instruction set
+	 */
+	public int getId(InstructionData instruction) {
+		Integer id = ids_by_code.get(instruction.getInstruction_code());
+		return id != null?id:-1;
 	}
 
 	/**
 	 * defines for loop_type
 	 *8bit uses: MVI , DCR
-	 *16bit uses: LXI , DCX
+	 *16bit uses: LXI , DCX , MOV A , ORA - DCX doesn't set the flags, so the register pair is tested for zero through A
 	 */
 	public static final int loop_type_16b = 0;
 	/**
 	 * defines for loop_type
 	 *8bit uses: MVI , DCR
-	 *16bit uses: LXI , DCX
+	 *16bit uses: LXI , DCX , MOV A , ORA - DCX doesn't set the flags, so the register pair is tested for zero through A
 	 */
 	public static final int loop_type_8b = 1;
 	
@@ -150,7 +193,18 @@ public class InstructionSet {
 	 */
 	public int getLoopLogicInstructionsDuration( int loop_type ) {
 		if ( loop_type == loop_type_8b  ) return 14; else
-		if ( loop_type == loop_type_16b ) return 16; else
+		if ( loop_type == loop_type_16b ) return 24; else
+		return 0;
+	}
+	
+	/**
+	 * returns the set specific number of instructions needed for the loop logic, the init, dcr and cond instructions together
+	 * @param loop_type - specifies whether we are making a 8bit loop or a 16bit loop
+	 * @return number of instructions
+	 */
+	public int getLoopLogicInstructionsLength( int loop_type ) {
+		if ( loop_type == loop_type_8b  ) return 3; else
+		if ( loop_type == loop_type_16b ) return 5; else
 		return 0;
 	}
 
@@ -186,6 +240,10 @@ public class InstructionSet {
 	 * returns the set specific decrementing instruction code segment
 	 * e.g. for 8085 
 	 * 	DCR R 
+	 * or for a register pair, DCX doesn't set the zero flag so it is set by OR-ing the two registers in A
+	 * 	DCX B
+	 * 	MOV A,B
+	 * 	ORA C
 	 * @param loop_type - specifies whether we are making a 8bit loop or a 16bit loop
 	 * @return a code segment used to decrement the elements for loop-logic
 	 */
@@ -193,10 +251,19 @@ public class InstructionSet {
 		if ( loop_type == loop_type_8b ) 
 			return getInstruction("DCR "+reg_or_reg_pair).getExecutable();
 		else if (  loop_type == loop_type_16b )
-			return getInstruction("DCX "+reg_or_reg_pair).getExecutable();
+			return new InstructionGroup(getInstruction("DCX "+reg_or_reg_pair).getExecutable(), 
+										getMoveInstruction("A",reg_or_reg_pair), 
+										getInstruction("ORA "+getSecondRegisterOfPair(reg_or_reg_pair)).getExecutable());
 		else return null;
 	}
 	
+	private String getSecondRegisterOfPair( String reg_pair ) {
+		if ( reg_pair.equals("B") ) return "C";
+		if ( reg_pair.equals("D") ) return "E";
+		if ( reg_pair.equals("H") ) return "L";
+		return "";
+	}
+	
 	/**
 	 * returns the set specific condition checking instruction code segment
 	 * e.g. for 8085 
@@ -213,7 +280,7 @@ public class InstructionSet {
 	private String getRegPairForPushingPoping( String reg ) {
 		if ( reg.equals("B") | reg.equals("C") ) return "B";
 		if ( reg.equals("D") | reg.equals("E") ) return "D";
-		if ( reg.equals("H") | reg.equals("L") ) return "L";
+		if ( reg.equals("H") | reg.equals("L") ) return "H";
 		if ( reg.equals("A") ) return "PSW";
 		return "";
 	}
@@ -226,7 +293,7 @@ public class InstructionSet {
 	 * @return a code segment used to make a pop from stack to the given reg
 	 */
 	public Executable getPopInstruction(String reg) {
-		return instruction_set.getInstruction("POP "+getRegPairForPushingPoping(reg)).getExecutable();
+		return getInstruction("POP "+getRegPairForPushingPoping(reg)).getExecutable();
 	}
 
 	/**
@@ -237,7 +304,7 @@ public class InstructionSet {
 	 * @return a code segment used to make a push on the stack of the given reg
 	 */
 	public Executable getPushInstruction(String reg) {
-		return instruction_set.getInstruction("PUSH "+getRegPairForPushingPoping(reg)).getExecutable();
+		return getInstruction("PUSH "+getRegPairForPushingPoping(reg)).getExecutable();
 	}
 
 	/**
@@ -249,7 +316,7 @@ public class InstructionSet {
 	 * @return a code segment used to copy a value
 	 */
 	public Executable getMoveInstruction(String dest, String src) {
-		return instruction_set.getInstruction("MOV "+dest+","+src).getExecutable();
+		return getInstruction("MOV "+dest+","+src).getExecutable();
 	}
 
 	/**
@@ -260,7 +327,7 @@ public class InstructionSet {
 	 * @return a code segment used to read from memory
 	 */
 	public Executable getLoadInstruction( String memory_location ) {
-		return instruction_set.getInstruction("LDA 16b").getExecutable("16b",memory_location);
+		return getInstruction("LDA 16b").getExecutable("16b",memory_location);
 	}
 
 	/**
@@ -271,7 +338,7 @@ public class InstructionSet {
 	 * @return a code segment used to write to memory
 	 */
 	public Executable getStoreInstruction( String memory_location ) {
-		return instruction_set.getInstruction("STA 16b").getExecutable("16b",memory_location);
+		return getInstruction("STA 16b").getExecutable("16b",memory_location);
 	}
 
 	/**
@@ -285,13 +352,30 @@ public class InstructionSet {
 	 * we don;t need any repetition 
 	 */
 	public ArrayList<InstructionData> getAllAvailableInstructions( Element[] elements_usable) {
+		return getAllAvailableInstructions(elements_usable, false);
+	}
+
+	/**
+	 * same as getAllAvailableInstructions(elements_usable), but lets us choose which of the instructions with the same duration is taken
+	 * @param elements_usable - descriptors for all the elements that are available to the function to operate with,
+	 * 		  such as registers and memory locations
+	 * @param smallest_size - take the smallest instruction in bytes, otherwise take the first one in the instruction set
+	 * @return - array list of instructions descriptions
+	 */
+	public ArrayList<InstructionData> getAllAvailableInstructions( Element[] elements_usable , boolean smallest_size ) {
 		ArrayList<InstructionData> res = new ArrayList<InstructionData>();
 		Elements comp = new Elements(elements_usable);
-		boolean[] already_have = new boolean[20];
-		for ( InstructionData i : instruction_set.getInstructions() ) {
-			if ( i.isTo_use() && i.isAvailable(comp) && !already_have[i.getDuration()])  {
-				res.add(i);
-				already_have[i.getDuration()] = true;
+		int[] already_have = new int[20];
+		Arrays.fill(already_have, -1);
+		for ( InstructionData i : instructions ) {
+			if ( i.isTo_use() && i.isAvailable(comp) ) {
+				if ( already_have[i.getDuration()] == -1 ) {
+					already_have[i.getDuration()] = res.size();
+					res.add(i);
+				}
+				else if ( smallest_size && i.getSize() < res.get(already_have[i.getDuration()]).getSize() ) {
+					res.set(already_have[i.getDuration()], i);
+				}
 			}
 		}
 		return res;
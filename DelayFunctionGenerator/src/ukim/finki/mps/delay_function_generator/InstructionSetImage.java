@@ -0,0 +1,180 @@
+package ukim.finki.mps.delay_function_generator;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * a binary image of the instruction data, made from the text file once so it doesn't have to be parsed every time the program starts
+ * the image is read through a memory-mapped file, the text file is parsed only when there is no image or it was made from some other text
+ * the image remembers the length and the CRC-32 checksum of the text it was made from, so an edited text file is never shadowed by an old image,
+ * whatever the modification times of the files are
+ *
+ * the image is not part of the sources, it is made by running this class from the directory with the text file
+ * every time the text file is changed, otherwise the text file is parsed on every start:
+ * 	java ukim.finki.mps.delay_function_generator.InstructionSetImage [text file] [image file]
+ *
+ * the format of the image, all numbers are big-endian:
+ *
+ * int   | magic number
+ * int   | version of the format
+ * long  | length of the text file in bytes
+ * int   | CRC-32 checksum of the text file
+ * int   | number of instructions
+ * for every instruction in the order of the text file:
+ * short | length of the instruction code in bytes
+ * bytes | the instruction code in UTF-8
+ * int   | duration in T states
+ * int   | size in bytes
+ * int   | the elements affected, encoded as in the Elements class
+ * byte  | 1 if the instruction is free to be used from the auto-generating code builder, 0 otherwise
+ *
+ * @author Andrej Gajduk
+ *
+ */
+public class InstructionSetImage {
+
+	/**
+	 * the text file the instruction data is read from
+	 */
+	public static final String text_file = "Instruction Data.txt";
+
+	/**
+	 * the image made from the text file
+	 */
+	public static final String image_file = "Instruction Data.bin";
+
+	/**
+	 * the first four bytes of every image, "DFGI"
+	 */
+	private static final int magic = 0x44464749;
+
+	private static final int version = 2;
+
+	private static final Charset charset = Charset.forName("UTF-8");
+
+	/**
+	 * makes the image from the text file
+	 * @param args - the text file and the image file, the default ones are used if they are not given
+	 */
+	public static void main(String[] args) throws IOException {
+		String text = args.length > 0?args[0]:text_file;
+		String image = args.length > 1?args[1]:image_file;
+		List<InstructionData> instructions = InstructionSet.readText(text);
+		write(instructions, new File(text), new File(image));
+		System.out.println(instructions.size()+" instructions written to "+image);
+	}
+
+	/**
+	 * writes the instructions as an image
+	 * @param instructions - the instructions, in the order of the text file
+	 * @param text - the text file the instructions were read from
+	 * @param image - the file for the image
+	 */
+	public static void write ( List<InstructionData> instructions , File text , File image ) throws IOException {
+		long text_length = text.length();
+		int text_checksum = checksum(text);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(image)));
+		try {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeLong(text_length);
+			out.writeInt(text_checksum);
+			out.writeInt(instructions.size());
+			for ( InstructionData ins : instructions ) {
+				byte code[] = ins.getInstruction_code().getBytes(charset);
+				out.writeShort(code.length);
+				out.write(code);
+				out.writeInt(ins.getDuration());
+				out.writeInt(ins.getSize());
+				out.writeInt(ins.getElementsAffected().getE());
+				out.writeByte(ins.isTo_use()?1:0);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * reads the instructions from the image if there is one that was made from the text file
+	 * @param text - the text file the image should have been made from, if there is no such file any valid image is used
+	 * @param image - the file of the image
+	 * @return the instructions, in the order of the text file, null if there is no usable image
+	 */
+	public static ArrayList<InstructionData> read ( File text , File image ) {
+		if ( !image.isFile() ) return null;
+		try {
+			FileInputStream in = new FileInputStream(image);
+			try {
+				FileChannel channel = in.getChannel();
+				ByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if ( contents.remaining() < 20 || contents.getInt() != magic || contents.getInt() != version ) return null;
+				long text_length = contents.getLong();
+				int text_checksum = contents.getInt();
+				//an image made from some other text, the length is compared first so the text is read only when it may be the same
+				if ( text.isFile() && (text.length() != text_length || checksum(text) != text_checksum) ) return null;
+				return read(contents);
+			}
+			finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * @param text - a file
+	 * @return the CRC-32 checksum of the contents of the file
+	 */
+	private static int checksum ( File text ) throws IOException {
+		CRC32 crc = new CRC32();
+		FileInputStream in = new FileInputStream(text);
+		try {
+			byte buffer[] = new byte[8192];
+			for ( int read = in.read(buffer) ; read != -1 ; read = in.read(buffer) ) {
+				crc.update(buffer, 0, read);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * @param image - the contents of the image, after the header
+	 * @return the instructions, null if the contents are not a valid image
+	 */
+	private static ArrayList<InstructionData> read ( ByteBuffer image ) {
+		try {
+			int count = image.getInt();
+			if ( count < 0 ) return null;
+			ArrayList<InstructionData> res = new ArrayList<InstructionData>(count);
+			for ( int i = 0 ; i < count ; ++i ) {
+				byte code[] = new byte[image.getShort()&0xFFFF];
+				image.get(code);
+				int duration = image.getInt();
+				int size = image.getInt();
+				int elements_affected = image.getInt();
+				boolean to_use = image.get() != 0;
+				res.add(new InstructionData(new String(code, charset), duration, size, new Elements(elements_affected), to_use));
+			}
+			return image.hasRemaining()?null:res;
+		} catch (BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,489 @@
+package ukim.finki.mps.delay_function_generator;
+import java.util.Arrays;
+
+/**
+ * executes 8085 machine code and counts the T-states it takes, used for checking the time of the generated delay functions
+ * against the time they take on the 8085
+ * 
+ * the code is assembled at the origin and called as a function, a return address right after the code is pushed on the stack first,
+ * so the execution ends when the code returns or when it runs past its last instruction
+ * the registers, the flags and the memory outside of the code are all 0 when the execution starts, the stack starts at the top of the memory
+ * 
+ * the memory and the registers are made once, executing the code makes no objects, so long delay functions can be checked quickly
+ * the durations are the ones of the 8085, a conditional jump takes 10 T-states when it is taken and 7 when it is not
+ * @author Andrej Gajduk
+ *
+ */
+public class Interpreter {
+
+	/**
+	 * the indices of the registers, the same as their encoding in the opcodes, M is not a register but the memory pointed to by HL
+	 */
+	private static final int B = 0 , C = 1 , D = 2 , E = 3 , H = 4 , L = 5 , M = 6 , A = 7;
+
+	/**
+	 * the bits of the flags register
+	 */
+	private static final int sign = 0x80 , zero = 0x40 , auxiliary_carry = 0x10 , parity = 0x04 , carry = 0x01;
+
+	/**
+	 * the sign, zero and parity flags for every 8 bit value
+	 */
+	private static final int[] szp = new int[256];
+
+	static {
+		for ( int i = 0 ; i < 256 ; ++i ) {
+			szp[i] = (i&sign)|(i == 0?zero:0)|(Integer.bitCount(i)%2 == 0?parity:0);
+		}
+	}
+
+	/**
+	 * the whole 64K of memory
+	 */
+	private final byte[] memory = new byte[0x10000];
+
+	private final int[] registers = new int[8];
+
+	private int flags , sp , pc;
+
+	/**
+	 * where the code is placed in the memory, the memory locations used by the code should not be in it
+	 */
+	private final int origin;
+
+	/**
+	 * @param origin - where the code is placed in the memory
+	 */
+	public Interpreter ( int origin ) {
+		if ( origin < 0 || origin > 0xFFFF ) throw new IllegalArgumentException("The origin "+origin+" is not an 8085 address");
+		this.origin = origin;
+	}
+
+	/**
+	 * checks that the code takes exactly as long as computed
+	 * @param exec - the code, such as a delay function
+	 * @return true if the code takes exec.time() T-states on the 8085
+	 */
+	public boolean verify ( Executable exec ) {
+		return measure(exec) == exec.time();
+	}
+
+	/**
+	 * executes the code for at most twice as long as computed, a code that doesn't end by then is taken to be an endless loop
+	 * @param exec - the code, such as a delay function
+	 * @return the number of T-states the code takes on the 8085, -1 if it didn't end in twice the computed time
+	 */
+	public long measure ( Executable exec ) {
+		return run(exec, 2*exec.time()+100);
+	}
+
+	/**
+	 * assembles the code and executes it
+	 * @param exec - the code, such as a delay function
+	 * @param max_states - the execution is stopped after this many T-states
+	 * @return the number of T-states the code takes, -1 if it didn't end in max_states
+	 * @throws IllegalArgumentException - if the code can not be assembled
+	 */
+	public long run ( Executable exec , long max_states ) {
+		byte code[] = new Assembler(origin).assemble(exec);
+		if ( origin+code.length >= 0x10000 ) throw new IllegalArgumentException("There is no room for the return address after the code");
+		Arrays.fill(memory, (byte) 0);
+		Arrays.fill(registers, 0);
+		System.arraycopy(code, 0, memory, origin, code.length);
+		int end = origin+code.length;
+		flags = 0x02;
+		sp = 0;
+		push(end);
+		pc = origin;
+		return run(end, max_states);
+	}
+
+	/**
+	 * the fetch and execute loop
+	 * @param end - the address after the code, the execution ends when it gets there
+	 */
+	private long run ( int end , long max_states ) {
+		long states = 0;
+		while ( pc != end ) {
+			if ( states > max_states ) return -1;
+			int opcode = fetch();
+			int r = (opcode>>3)&7;
+			if ( opcode >= 0x40 && opcode < 0x80 ) {
+				//MOV and HLT
+				if ( opcode == 0x76 ) return -1;
+				set(r, get(opcode&7));
+				states += r == M || (opcode&7) == M?7:4;
+				continue;
+			}
+			if ( opcode >= 0x80 && opcode < 0xC0 ) {
+				alu(r, get(opcode&7));
+				states += (opcode&7) == M?7:4;
+				continue;
+			}
+			switch ( opcode ) {
+				case 0x00: case 0xF3: case 0xFB: case 0x30:
+					//NOP, DI, EI, SIM
+					states += 4;
+					break;
+				case 0x20:
+					//RIM, no interrupts are pending
+					registers[A] = 0;
+					states += 4;
+					break;
+				case 0x01: case 0x11: case 0x21: case 0x31:
+					setPair(opcode>>4, fetchWord());
+					states += 10;
+					break;
+				case 0x02: case 0x12:
+					write(getPair(opcode>>4), registers[A]);
+					states += 7;
+					break;
+				case 0x0A: case 0x1A:
+					registers[A] = read(getPair(opcode>>4));
+					states += 7;
+					break;
+				case 0x03: case 0x13: case 0x23: case 0x33:
+					//INX and DCX don't change the flags
+					setPair(opcode>>4, getPair(opcode>>4)+1);
+					states += 6;
+					break;
+				case 0x0B: case 0x1B: case 0x2B: case 0x3B:
+					setPair(opcode>>4, getPair(opcode>>4)-1);
+					states += 6;
+					break;
+				case 0x09: case 0x19: case 0x29: case 0x39: {
+					int sum = getPair(2)+getPair(opcode>>4);
+					flags = (flags&~carry)|(sum > 0xFFFF?carry:0);
+					setPair(2, sum);
+					states += 10;
+					break;
+				}
+				case 0x04: case 0x0C: case 0x14: case 0x1C: case 0x24: case 0x2C: case 0x34: case 0x3C: {
+					int value = (get(r)+1)&0xFF;
+					flags = (flags&carry)|szp[value]|((value&0xF) == 0?auxiliary_carry:0)|0x02;
+					set(r, value);
+					states += r == M?10:4;
+					break;
+				}
+				case 0x05: case 0x0D: case 0x15: case 0x1D: case 0x25: case 0x2D: case 0x35: case 0x3D: {
+					int value = (get(r)-1)&0xFF;
+					flags = (flags&carry)|szp[value]|((value&0xF) != 0xF?auxiliary_carry:0)|0x02;
+					set(r, value);
+					states += r == M?10:4;
+					break;
+				}
+				case 0x06: case 0x0E: case 0x16: case 0x1E: case 0x26: case 0x2E: case 0x36: case 0x3E:
+					set(r, fetch());
+					states += r == M?10:7;
+					break;
+				case 0x07: {
+					int a = registers[A];
+					registers[A] = ((a<<1)|(a>>7))&0xFF;
+					flags = (flags&~carry)|(a>>7);
+					states += 4;
+					break;
+				}
+				case 0x0F: {
+					int a = registers[A];
+					registers[A] = ((a>>1)|(a<<7))&0xFF;
+					flags = (flags&~carry)|(a&1);
+					states += 4;
+					break;
+				}
+				case 0x17: {
+					int a = registers[A];
+					registers[A] = ((a<<1)|(flags&carry))&0xFF;
+					flags = (flags&~carry)|(a>>7);
+					states += 4;
+					break;
+				}
+				case 0x1F: {
+					int a = registers[A];
+					registers[A] = ((a>>1)|((flags&carry)<<7))&0xFF;
+					flags = (flags&~carry)|(a&1);
+					states += 4;
+					break;
+				}
+				case 0x22: {
+					int address = fetchWord();
+					write(address, registers[L]);
+					write(address+1, registers[H]);
+					states += 16;
+					break;
+				}
+				case 0x2A: {
+					int address = fetchWord();
+					registers[L] = read(address);
+					registers[H] = read(address+1);
+					states += 16;
+					break;
+				}
+				case 0x32:
+					write(fetchWord(), registers[A]);
+					states += 13;
+					break;
+				case 0x3A:
+					registers[A] = read(fetchWord());
+					states += 13;
+					break;
+				case 0x27:
+					daa();
+					states += 4;
+					break;
+				case 0x2F:
+					registers[A] ^= 0xFF;
+					states += 4;
+					break;
+				case 0x37:
+					flags |= carry;
+					states += 4;
+					break;
+				case 0x3F:
+					flags ^= carry;
+					states += 4;
+					break;
+				case 0xC0: case 0xC8: case 0xD0: case 0xD8: case 0xE0: case 0xE8: case 0xF0: case 0xF8:
+					if ( condition(r) ) {
+						pc = pop();
+						states += 12;
+					}
+					else states += 6;
+					break;
+				case 0xC9:
+					pc = pop();
+					states += 10;
+					break;
+				case 0xC1: case 0xD1: case 0xE1: {
+					setPair((opcode>>4)&3, pop());
+					states += 10;
+					break;
+				}
+				case 0xF1: {
+					int value = pop();
+					flags = (value&0xD5)|0x02;
+					registers[A] = value>>8;
+					states += 10;
+					break;
+				}
+				case 0xC5: case 0xD5: case 0xE5:
+					push(getPair((opcode>>4)&3));
+					states += 12;
+					break;
+				case 0xF5:
+					push(registers[A]<<8|flags);
+					states += 12;
+					break;
+				case 0xC2: case 0xCA: case 0xD2: case 0xDA: case 0xE2: case 0xEA: case 0xF2: case 0xFA: {
+					int address = fetchWord();
+					if ( condition(r) ) {
+						pc = address;
+						states += 10;
+					}
+					else states += 7;
+					break;
+				}
+				case 0xC3:
+					pc = fetchWord();
+					states += 10;
+					break;
+				case 0xC4: case 0xCC: case 0xD4: case 0xDC: case 0xE4: case 0xEC: case 0xF4: case 0xFC: {
+					int address = fetchWord();
+					if ( condition(r) ) {
+						push(pc);
+						pc = address;
+						states += 18;
+					}
+					else states += 9;
+					break;
+				}
+				case 0xCD: {
+					int address = fetchWord();
+					push(pc);
+					pc = address;
+					states += 18;
+					break;
+				}
+				case 0xC7: case 0xCF: case 0xD7: case 0xDF: case 0xE7: case 0xEF: case 0xF7: case 0xFF:
+					push(pc);
+					pc = r<<3;
+					states += 12;
+					break;
+				case 0xC6: case 0xCE: case 0xD6: case 0xDE: case 0xE6: case 0xEE: case 0xF6: case 0xFE:
+					alu(r, fetch());
+					states += 7;
+					break;
+				case 0xD3:
+					//OUT, nothing is connected
+					fetch();
+					states += 10;
+					break;
+				case 0xDB:
+					//IN, nothing is connected
+					fetch();
+					registers[A] = 0;
+					states += 10;
+					break;
+				case 0xE3: {
+					int value = read(sp)|read(sp+1)<<8;
+					write(sp, registers[L]);
+					write(sp+1, registers[H]);
+					setPair(2, value);
+					states += 16;
+					break;
+				}
+				case 0xE9:
+					pc = getPair(2);
+					states += 6;
+					break;
+				case 0xEB: {
+					int value = getPair(1);
+					setPair(1, getPair(2));
+					setPair(2, value);
+					states += 4;
+					break;
+				}
+				case 0xF9:
+					sp = getPair(2);
+					states += 6;
+					break;
+				default:
+					throw new IllegalArgumentException("The opcode "+Integer.toHexString(opcode)+" at "+((pc-1)&0xFFFF)+" is not an 8085 instruction");
+			}
+		}
+		return states;
+	}
+
+	/**
+	 * ADD, ADC, SUB, SBB, ANA, XRA, ORA and CMP, and the same instructions with immediate data
+	 * @param operation - the bits 3 to 5 of the opcode
+	 * @param value - the second operand, the first one is A
+	 */
+	private void alu ( int operation , int value ) {
+		int a = registers[A] , res;
+		int cy = flags&carry;
+		switch ( operation ) {
+			case 0: case 1: {
+				int c = operation == 1?cy:0;
+				res = a+value+c;
+				flags = szp[res&0xFF]|(res > 0xFF?carry:0)|(((a&0xF)+(value&0xF)+c) > 0xF?auxiliary_carry:0)|0x02;
+				registers[A] = res&0xFF;
+				break;
+			}
+			case 2: case 3: case 7: {
+				int c = operation == 3?cy:0;
+				res = a-value-c;
+				flags = szp[res&0xFF]|(res < 0?carry:0)|(((a&0xF)-(value&0xF)-c) >= 0?auxiliary_carry:0)|0x02;
+				if ( operation != 7 ) registers[A] = res&0xFF;
+				break;
+			}
+			case 4:
+				res = a&value;
+				flags = szp[res]|(((a|value)&0x08) != 0?auxiliary_carry:0)|0x02;
+				registers[A] = res;
+				break;
+			case 5:
+				res = a^value;
+				flags = szp[res]|0x02;
+				registers[A] = res;
+				break;
+			default:
+				res = a|value;
+				flags = szp[res]|0x02;
+				registers[A] = res;
+				break;
+		}
+	}
+
+	private void daa() {
+		int a = registers[A] , correction = 0 , cy = flags&carry;
+		if ( (a&0xF) > 9 || (flags&auxiliary_carry) != 0 ) correction |= 0x06;
+		if ( a > 0x99 || cy != 0 ) {
+			correction |= 0x60;
+			cy = carry;
+		}
+		int res = (a+correction)&0xFF;
+		flags = szp[res]|cy|(((a&0xF)+(correction&0xF)) > 0xF?auxiliary_carry:0)|0x02;
+		registers[A] = res;
+	}
+
+	/**
+	 * @param condition - the bits 3 to 5 of the opcode: NZ, Z, NC, C, PO, PE, P, M
+	 */
+	private boolean condition ( int condition ) {
+		int mask;
+		switch ( condition>>1 ) {
+			case 0: mask = zero; break;
+			case 1: mask = carry; break;
+			case 2: mask = parity; break;
+			default: mask = sign; break;
+		}
+		return ((flags&mask) != 0) == ((condition&1) != 0);
+	}
+
+	private int fetch() {
+		int res = memory[pc]&0xFF;
+		pc = (pc+1)&0xFFFF;
+		return res;
+	}
+
+	private int fetchWord() {
+		int res = fetch();
+		return res|fetch()<<8;
+	}
+
+	private int read ( int address ) {
+		return memory[address&0xFFFF]&0xFF;
+	}
+
+	private void write ( int address , int value ) {
+		memory[address&0xFFFF] = (byte) value;
+	}
+
+	/**
+	 * @param r - the index of a register, M for the memory pointed to by HL
+	 */
+	private int get ( int r ) {
+		return r == M?read(getPair(2)):registers[r];
+	}
+
+	private void set ( int r , int value ) {
+		if ( r == M ) write(getPair(2), value);
+		else registers[r] = value&0xFF;
+	}
+
+	/**
+	 * @param pair - BC, DE, HL or SP, as encoded in bits 4 and 5 of the opcode
+	 */
+	private int getPair ( int pair ) {
+		pair &= 3;
+		if ( pair == 3 ) return sp;
+		return registers[2*pair]<<8|registers[2*pair+1];
+	}
+
+	private void setPair ( int pair , int value ) {
+		pair &= 3;
+		value &= 0xFFFF;
+		if ( pair == 3 ) {
+			sp = value;
+			return;
+		}
+		registers[2*pair] = value>>8;
+		registers[2*pair+1] = value&0xFF;
+	}
+
+	private void push ( int value ) {
+		sp = (sp-1)&0xFFFF;
+		write(sp, value>>8);
+		sp = (sp-1)&0xFFFF;
+		write(sp, value);
+	}
+
+	private int pop() {
+		int res = read(sp);
+		sp = (sp+1)&0xFFFF;
+		res |= read(sp)<<8;
+		sp = (sp+1)&0xFFFF;
+		return res;
+	}
+
+}
@@ -1,4 +1,5 @@
 package ukim.finki.mps.delay_function_generator;
+import java.io.IOException;
 
 /**
  * a loop is defined:
@@ -40,14 +41,14 @@ public class Loop extends Executable {
 	 *  does not influence significantly the time to execute the loop directly but by value,
 	 *  *IMPORTANT NOTICE: must be present for the loop to function properly
 	 */
-	public Executable init_instructions;
+	public final Executable init_instructions;
 	
 	/**
 	 * the instruction used to decrement a variable/register,
 	 * always use the DCR or DCX functions to limit the probability to end up with an endless loop
 	 * *IMPORTANT NOTICE: must be present for the loop to function properly
 	 */
-	public Executable dcr_instructions;
+	public final Executable dcr_instructions;
 	
 	/**
 	 * the instruction that will determine the end of the loop
@@ -56,25 +57,73 @@ public class Loop extends Executable {
 	 * then use the JNZ loop_start to get back in the loop for further processing 
 	 * *IMPORTANT NOTICE: must be present for the loop to function properly
 	 */
-	public Executable cond_instructions;
+	public final Executable cond_instructions;
 	
 	/**
 	 * other instruction used only to provide more time for the loop iterations
 	 * so we don't have too many nested loops,
 	 * use this as a better solution whenever possible
 	 */
-	public Executable other_instructions;
+	public final Executable other_instructions;
 
 	/**
 	 * just a label for where the loop starts
 	 */
-	public String label;
+	public final String label;
 	
 	/**
 	 * the number of iterations this loops is supposed to process through before exiting,
 	 * this value is the same as the init value in the init_instrucion
 	 */
-	public int iterations;
+	public final int iterations;
+	
+	/**
+	 * the time, length and size of the loop, computed once in the constructor
+	 */
+	private final long time;
+	
+	private final long single_iteration_time;
+	
+	private final int length;
+	
+	private final int size;
+	
+	/**
+	 * a full all-fields constructor, the loop is never changed once made
+	 * @param init_instructions - initializes the register counting the iterations
+	 * @param other_instructions - the body of the loop, null if there is none
+	 * @param dcr_instructions - decrements the register counting the iterations
+	 * @param cond_instructions - jumps back to the start of the loop while there are iterations left
+	 * @param label - where the loop starts
+	 * @param iterations - the number of iterations, the same as the init value in the init_instructions
+	 */
+	public Loop ( Executable init_instructions , Executable other_instructions , Executable dcr_instructions , 
+				  Executable cond_instructions , String label , int iterations ) {
+		this.init_instructions = init_instructions;
+		this.other_instructions = other_instructions;
+		this.dcr_instructions = dcr_instructions;
+		this.cond_instructions = cond_instructions;
+		this.label = label;
+		this.iterations = iterations;
+		long iteration_time = 0;
+		iteration_time += other_instructions!=null?other_instructions.time():0;
+		iteration_time += dcr_instructions!=null?dcr_instructions.time():0;
+		iteration_time += cond_instructions!=null?cond_instructions.time():0;
+		single_iteration_time = iteration_time;
+		long total_time = 0;
+		total_time += init_instructions!=null?init_instructions.time():0;
+		total_time += iterations*single_iteration_time;
+		//the last conditional jump is not taken, so it is 3 T-states shorter
+		time = total_time-3;
+		int total_length = 0 , total_size = 0;
+		for ( Executable e : new Executable[] { init_instructions , other_instructions , dcr_instructions , cond_instructions } ) {
+			if ( e == null ) continue;
+			total_length += e.length();
+			total_size += e.size();
+		}
+		length = total_length;
+		size = total_size;
+	}
 	
 	/**
 	 * the time it takes this loop to fully execute
@@ -83,10 +132,7 @@ public class Loop extends Executable {
 	 */
 	@Override
 	public long time() {
-		long result = 0;
-		result += init_instructions!=null?init_instructions.time():0;
-		result += iterations*singleIterationTime();
-		return result-3;
+		return time;
 	}
 	
 	/**
@@ -94,13 +140,9 @@ public class Loop extends Executable {
 	 * @return time in T-states of the mP
 	 */
 	public long singleIterationTime() {
-		long result = 0;
-		result += other_instructions!=null?other_instructions.time():0;
-		result += dcr_instructions!=null?dcr_instructions.time():0;
-		result += cond_instructions!=null?cond_instructions.time():0;
-		return result;
+		return single_iteration_time;
 	}
-
+	
 	/**
 	 * how many instructions are there in this group
 	 * the sum of the times for all instructions in this group
@@ -108,23 +150,26 @@ public class Loop extends Executable {
 	 */
 	@Override
 	public int length() {
-		int result = 0;
-		result += init_instructions!=null?init_instructions.length():0;
-		result += other_instructions!=null?other_instructions.length():0;
-		result += dcr_instructions!=null?dcr_instructions.length():0;
-		result += cond_instructions!=null?cond_instructions.length():0;
-		return result;
+		return length;
 	}
 	
+	/**
+	 * @return size in bytes, the body of the loop is counted only once
+	 */
 	@Override
-	public String toString() {
-		String result = "";
-		result += init_instructions!=null?init_instructions.toString()+"\n":"";
-		result += label+":";
-		result += other_instructions!=null?other_instructions.toString()+"\n":"";
-		result += dcr_instructions!=null?dcr_instructions.toString()+"\n":"";
-		result += cond_instructions!=null?cond_instructions.toString()+"\n":"";
-		return result;
+	public int size() {
+		return size;
 	}
 	
+	/**
+	 * the label goes on the same line as the first instruction of the loop body
+	 */
+	@Override
+	public void write(AssemblyWriter out) throws IOException {
+		out.write(init_instructions);
+		out.label(label);
+		out.write(other_instructions);
+		out.write(dcr_instructions);
+		out.write(cond_instructions);
+	}
 }
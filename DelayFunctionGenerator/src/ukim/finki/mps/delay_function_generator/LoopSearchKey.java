@@ -0,0 +1,94 @@
+package ukim.finki.mps.delay_function_generator;
+
+/**
+ * describes one sub-problem of the loop search done by the CodeBuilder,
+ * two keys are equal if the search for them will produce the same result, so the result of one can be reused for the other
+ * the sub-problem is determined by:
+ *
+ * 1) the time window [min_time,max_time]
+ * 2) the elements that are available, encoded as in the Elements class
+ * 3) the memory locations used by the instructions that access memory
+ * 4) the loop nesting depth, it determines the labels of the loops
+ * 5) the maximum number of instructions
+ * 6) the mP and whether the smallest loop-less code segments are used, they determine the instructions the loop is made of
+ *
+ * @author Andrej Gajduk
+ *
+ */
+public class LoopSearchKey {
+
+	private String mP;
+
+	private boolean smallest_code;
+
+	private long min_time;
+
+	private long max_time;
+
+	/**
+	 * the elements available, encoded as in the Elements class
+	 */
+	private int elements;
+
+	/**
+	 * the address of the memory location used by instructions that need a single memory location, null if there is none
+	 */
+	private String single;
+
+	/**
+	 * the address of the memory locations used by instructions that need two memory locations, null if there are none
+	 */
+	private String pair;
+
+	private int nested_loops_counter;
+
+	private int instruction_limit;
+
+	/**
+	 * a full-field constructor
+	 */
+	public LoopSearchKey(String mP, boolean smallest_code, long min_time, long max_time, int elements, Element single, Element pair, int nested_loops_counter, int instruction_limit) {
+		this.mP = mP;
+		this.smallest_code = smallest_code;
+		this.min_time = min_time;
+		this.max_time = max_time;
+		this.elements = elements;
+		this.single = single != null?single.description:null;
+		this.pair = pair != null?pair.description:null;
+		this.nested_loops_counter = nested_loops_counter;
+		this.instruction_limit = instruction_limit;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = (int) (min_time^(min_time>>>32));
+		result = 31*result+(int) (max_time^(max_time>>>32));
+		result = 31*result+elements;
+		result = 31*result+(single != null?single.hashCode():0);
+		result = 31*result+(pair != null?pair.hashCode():0);
+		result = 31*result+nested_loops_counter;
+		result = 31*result+instruction_limit;
+		result = 31*result+(mP != null?mP.hashCode():0);
+		result = 31*result+(smallest_code?1:0);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if ( this == obj ) return true;
+		if ( obj == null || obj.getClass() != getClass() ) return false;
+		LoopSearchKey other = (LoopSearchKey) obj;
+		return min_time == other.min_time && max_time == other.max_time &&
+			   elements == other.elements && nested_loops_counter == other.nested_loops_counter &&
+			   instruction_limit == other.instruction_limit && smallest_code == other.smallest_code &&
+			   (mP == null?other.mP == null:mP.equals(other.mP)) &&
+			   (single == null?other.single == null:single.equals(other.single)) &&
+			   (pair == null?other.pair == null:pair.equals(other.pair));
+	}
+
+	@Override
+	public String toString() {
+		return mP+" "+smallest_code+" ["+min_time+","+max_time+"] "+elements+" "+single+" "+pair+" "+nested_loops_counter+" "+instruction_limit;
+	}
+
+}
@@ -0,0 +1,48 @@
+package ukim.finki.mps.delay_function_generator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * a map with a bounded number of entries,
+ * when it is full the least recently used entry is thrown away to make room for the new one
+ * used for remembering results the CodeBuilder has already computed
+ * @author Andrej Gajduk
+ *
+ * @param <K> - the key type
+ * @param <V> - the value type
+ */
+public class LruCache<K,V> extends LinkedHashMap<K,V> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * the maximum number of entries this cache will hold
+	 */
+	private int capacity;
+
+	/**
+	 * @param capacity - the maximum number of entries this cache will hold
+	 */
+	public LruCache ( int capacity ) {
+		//access order = true, so that every get moves the entry to the end of the eviction queue
+		super(16,0.75f,true);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * called by the LinkedHashMap after every put,
+	 * @return true when the eldest entry needs to be removed
+	 */
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+		return size() > capacity;
+	}
+
+	/**
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+}
@@ -1,6 +1,7 @@
 package ukim.finki.mps.delay_function_generator;
 
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
 	
@@ -22,11 +23,32 @@ public class Main {
 		m.testSmallDuration2();
 		m.testMediumDuration1();
 		m.testLargeDuration1();
+		m.testDeadline();
+		m.testInstructionSizes();
+		if ( m.errors > 0 ) {
+			System.out.println(m.errors+" ERRORS, see above");
+			System.exit(1);
+		}
 	}
 
 	
 	CodeBuilder c;
 	
+	/**
+	 * executes the functions made by the tests, to check their time
+	 */
+	Interpreter interpreter = new Interpreter(0x8000);
+	
+	/**
+	 * the number of checks that have failed, the run fails if there are any
+	 */
+	int errors = 0;
+	
+	private void error( String message ) {
+		++errors;
+		System.out.println("ERROR. "+message);
+	}
+	
 	/**
 	 * use this for testing
 	 */
@@ -41,7 +63,89 @@ public class Main {
 		else {
 			System.out.println("Resulting code:\n"+d.toString());
 			System.out.println("Lasting:"+d.time()+" states");
+			if ( CodeBuilder.isComplete(d, min_time, max_time) ) {
+				long states = interpreter.measure(d);
+				if ( states == d.time() ) {
+					System.out.println("Verified by executing it");
+				}
+				else {
+					error("Executing it lasts "+(states == -1?"more than "+(2*d.time()+100):states)+" states");
+				}
+			}
+			CompactDelayFunction compact = CompactDelayFunction.compact(d, "8085");
+			if ( compact != null ) {
+				DelayFunction back = compact.toDelayFunction();
+				if ( back.toString().equals(d.toString()) && back.time() == d.time() && back.length() == d.length() && back.size() == d.size() ) {
+					System.out.println("Kept the same in compact form");
+				}
+				else {
+					error("Made back from the compact form as:\n"+back.toString()+"lasting "+back.time()+" states, "+back.length()+" instructions, "+back.size()+" bytes");
+				}
+			}
+		}
+	}
+	
+	/**
+	 * use this for testing the generating with a time limit
+	 */
+	public void testWithDeadline( long min_time, long max_time, Element elements_usable[], boolean ret_is_required, long milliseconds ) {
+		System.out.println("Trying to make a function with duration in the intervall ["+min_time+","+max_time+"] in "+milliseconds+" ms, with the following elements:" +
+				Arrays.toString(elements_usable)+" , return "+(ret_is_required?"":"not") +" required");
+		DelayFunctionResult r = c.buildDelayFunction(min_time, max_time, "8085", elements_usable, ret_is_required, milliseconds, TimeUnit.MILLISECONDS);
+		DelayFunction d = r.getDelayFunction();
+		if ( d == null ) {
+			System.out.println("We failed in generating");
+		}
+		else {
+			System.out.println("Resulting code:\n"+d.toString());
+			System.out.println("Lasting:"+d.time()+" states, "+(r.isExact()?"exactly as required":"the closest one found in time"));
+			long distance = d.time() < min_time?min_time-d.time():d.time() > max_time?d.time()-max_time:0;
+			if ( r.isExact() != (distance == 0) ) {
+				error("The result is "+(r.isExact()?"":"not ")+"marked exact, but it is "+distance+" states away from the interval");
+			}
+			else if ( distance > 0 ) {
+				//nothing closer should be possible, check it without a time limit
+				DelayFunction closer = c.buildDelayFunction(Math.max(0, min_time-distance+1), max_time+distance-1, "8085", elements_usable, ret_is_required);
+				if ( CodeBuilder.isComplete(closer, Math.max(0, min_time-distance+1), max_time+distance-1) ) {
+					error("A closer one lasting "+closer.time()+" states was not found in time");
+				}
+				else {
+					System.out.println("It is the closest one possible");
+				}
+			}
+		}
+	}
+	
+	public void testDeadline () {
+		Element elements_usable[] = { new Element(Element.REGISTER,"A") };
+		System.out.println("\nTesting with a time limit, an interval that can be reached.\n");
+		testWithDeadline(5000, 5002, elements_usable, false, 1000);
+		
+		Element elements_usable2[] = { };
+		System.out.println("\nTesting with a time limit, an interval that can't be reached.\n");
+		testWithDeadline(5, 6, elements_usable2, false, 1000);
+	}
+	
+	/**
+	 * checks the size given in the instruction data against the size of the machine code of every instruction the Assembler knows
+	 */
+	public void testInstructionSizes () {
+		System.out.println("\nTesting the sizes of the instructions.\n");
+		int checked = 0;
+		for ( InstructionData instruction : InstructionSet.getInstance("8085").getInstructions() ) {
+			byte code[];
+			try {
+				code = new Assembler(0).assemble(instruction.getExecutable(instruction.getDataType(), "0"));
+			} catch (IllegalArgumentException e) {
+				//not an instruction of the 8085 that the Assembler knows
+				continue;
+			}
+			++checked;
+			if ( code.length != instruction.getSize() ) {
+				error(instruction.getInstruction_code()+" is given as "+instruction.getSize()+" bytes, but it is assembled in "+code.length);
+			}
 		}
+		System.out.println("Checked the sizes of "+checked+" instructions");
 	}
 	
 	public void testWithStep( long repetition , long start , long step , Element elements_usable[], boolean ret_is_required , long fault_tollerance) {
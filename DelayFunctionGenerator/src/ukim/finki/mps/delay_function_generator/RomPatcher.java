@@ -0,0 +1,155 @@
+package ukim.finki.mps.delay_function_generator;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * writes the machine code of delay functions into the slots reserved for them in a ROM image,
+ * the image is mapped in memory once and the code is written straight into it, so many slots can be patched 
+ * in a single pass without copying the image
+ * 
+ * every patch checks that the code fits in the slot, first by the sizes of the instructions in the instruction data
+ * and then by the assembled code, the bytes in the slot after the code are left as they are
+ * 
+ * the image can be patched by running this class:
+ * 	java ukim.finki.mps.delay_function_generator.RomPatcher image origin slot_size min_time max_time ret|noret [elements]
+ * the image starts at address 0, the numbers can be given in hexadecimal as 0x2000,
+ * the elements are registers (A, B, ...), memory locations (their addresses) and "stack" for a stack that can be used
+ * @author Andrej Gajduk
+ *
+ */
+public class RomPatcher implements Closeable {
+
+	private final RandomAccessFile file;
+
+	/**
+	 * the whole image, mapped for reading and writing
+	 */
+	private final MappedByteBuffer image;
+
+	/**
+	 * the address of the first byte of the image
+	 */
+	private final int base;
+
+	/**
+	 * opens and maps the image, it is kept open until close is called
+	 * @param image_file - the ROM image
+	 * @param base - the address of the first byte of the image
+	 */
+	public RomPatcher ( File image_file , int base ) throws IOException {
+		this.base = base;
+		file = new RandomAccessFile(image_file, "rw");
+		try {
+			image = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * writes the machine code of the executable into the slot
+	 * @param origin - the address of the slot, the code is assembled for this address
+	 * @param slot_size - the number of bytes reserved for the code
+	 * @param exec - the code, such as a delay function
+	 * @return the number of bytes written
+	 * @throws IllegalArgumentException - if the slot is not in the image or the code doesn't fit in it
+	 */
+	public int patch ( int origin , int slot_size , Executable exec ) {
+		if ( origin < base || slot_size < 0 || (long) origin-base+slot_size > image.capacity() ) {
+			throw new IllegalArgumentException("The slot of "+slot_size+" bytes at "+origin+" is not in the image");
+		}
+		//the sizes of the instructions are known without assembling
+		if ( exec.size() > slot_size ) {
+			throw new IllegalArgumentException("The code takes "+exec.size()+" bytes, the slot at "+origin+" has only "+slot_size);
+		}
+		byte code[] = new Assembler(origin).assemble(exec);
+		if ( code.length > slot_size ) {
+			throw new IllegalArgumentException("The code takes "+code.length+" bytes, the slot at "+origin+" has only "+slot_size);
+		}
+		//written through a view of its own, so slots can be patched from many threads at once
+		ByteBuffer slot = image.duplicate();
+		slot.position(origin-base);
+		slot.put(code);
+		return code.length;
+	}
+
+	/**
+	 * generates a delay function and writes it into the slot
+	 * @param code_builder - makes the delay function
+	 * @param min_time - lower bound for the duration of the delay function
+	 * @param max_time - upper bound for the duration of the delay function
+	 * @param elements_usable - the elements available to the function
+	 * @param ret_is_required - true if the function should end with a return instruction
+	 * @param origin - the address of the slot
+	 * @param slot_size - the number of bytes reserved for the code
+	 * @return the delay function written, null if no delay function with a duration in [min_time,max_time] was found 
+	 * 		   and nothing was written
+	 * @throws IllegalArgumentException - if the slot is not in the image or the code doesn't fit in it
+	 */
+	public DelayFunction patch ( CodeBuilder code_builder , long min_time , long max_time , Element elements_usable[] , 
+								 boolean ret_is_required , int origin , int slot_size ) {
+		DelayFunction res = code_builder.buildDelayFunction(min_time, max_time, "8085", elements_usable, ret_is_required);
+		if ( !CodeBuilder.isComplete(res, min_time, max_time) ) return null;
+		patch(origin, slot_size, res);
+		return res;
+	}
+
+	/**
+	 * writes the changes to the image file and closes it
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			image.force();
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if ( args.length < 6 ) {
+			System.out.println("java ukim.finki.mps.delay_function_generator.RomPatcher image origin slot_size min_time max_time ret|noret [elements]");
+			return;
+		}
+		int origin = Integer.decode(args[1]);
+		int slot_size = Integer.decode(args[2]);
+		long min_time = Long.decode(args[3]);
+		long max_time = Long.decode(args[4]);
+		boolean ret_is_required = args[5].equals("ret");
+		ArrayList<Element> elements_usable = new ArrayList<Element>();
+		for ( int i = 6 ; i < args.length ; ++i ) {
+			if ( args[i].equals("stack") ) {
+				elements_usable.add(new Element(Element.STACK, Element.STACK_VALID));
+			}
+			else if ( Character.isDigit(args[i].charAt(0)) ) {
+				elements_usable.add(new Element(Element.MEMORY, Integer.toString(Integer.decode(args[i]))));
+			}
+			else {
+				elements_usable.add(new Element(Element.REGISTER, args[i]));
+			}
+		}
+		RomPatcher patcher = new RomPatcher(new File(args[0]), 0);
+		try {
+			DelayFunction d = patcher.patch(new CodeBuilder(), min_time, max_time, 
+											elements_usable.toArray(new Element[elements_usable.size()]), ret_is_required, origin, slot_size);
+			if ( d == null ) {
+				System.out.println("We failed in generating");
+			}
+			else {
+				System.out.println(d.size()+" bytes lasting "+d.time()+" states written at "+args[1]+":\n"+d);
+			}
+		}
+		finally {
+			patcher.close();
+		}
+	}
+
+}
@@ -708,7 +708,7 @@ public class DesktopApplication1View extends FrameView {
         int msecs = Integer.parseInt((txtmSecs.getText()==null||txtmSecs.getText().length()==0)?"0":txtmSecs.getText());
         int nsecs = Integer.parseInt((txtnSecs.getText()==null||txtnSecs.getText().length()==0)?"0":txtnSecs.getText());
         
-        long total = days*86400*1000000000L+hours*3600*1000000000L+mins*60*1000000000L+secs*1000000000L+msecs*1000000L+nsecs*1000L;
+        long total = days*86400L*1000000000L+hours*3600L*1000000000L+mins*60L*1000000000L+secs*1000000000L+msecs*1000000L+nsecs*1000L;
         int state_dur = Integer.parseInt((txtStateDuration.getText()==null||txtStateDuration.getText().length()==0)?"1":txtStateDuration.getText());
        
         if ( state_dur == 0 ) {